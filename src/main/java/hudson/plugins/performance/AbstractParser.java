@@ -1,77 +1,158 @@
 package hudson.plugins.performance;
 
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
 import hudson.model.AbstractBuild;
 import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * An abstraction for parsing data to PerformanceReport instances. This class
- * provides functionality that optimizes the parsing process, such as caching as
- * well as saving/loaded parsed data in serialized form to/from disc.
+ * provides functionality that optimizes the parsing process, such as
+ * saving/loaded parsed data in serialized form to/from disc. Parsed reports are
+ * cached per build, by {@link ReportCache}.
  * 
  * @author Guus der Kinderen, guus.der.kinderen@gmail.com
  */
 public abstract class AbstractParser extends PerformanceReportParser 
 {  
+  private static final long serialVersionUID = 1L;
+
   private static final Logger LOGGER = Logger.getLogger(JMeterParser.class.getName());
 
   /**
-   * A suffix to be used for files in which a serialized PerformanceReport instance is stored.
+   * A suffix to be used for files in which a PerformanceReport instance is stored, in the format of {@link ReportCodec}.
+   */
+  static final String SERIALIZED_DATA_FILE_SUFFIX = ".serialized-v2";
+
+  /**
+   * A suffix of files in which earlier versions stored a PerformanceReport instance through Java serialization.
    */
-  private static final String SERIALIZED_DATA_FILE_SUFFIX = ".serialized";
+  static final String LEGACY_SERIALIZED_DATA_FILE_SUFFIX = ".serialized";
 
   /**
-   * A cache that contains serialized PerformanceReport instances. This cache intends to limit disc IO.
+   * The maximum amount of report files that are parsed concurrently by
+   * {@link #parse(AbstractBuild, Collection, TaskListener)}. Configurable
+   * through the system property
+   * <code>hudson.plugins.performance.AbstractParser.parseThreads</code>; a
+   * value of 1 parses files one after another.
    */
-  private static final Cache<String, PerformanceReport> CACHE = CacheBuilder.newBuilder().maximumSize(1000).build();
+  static final int PARSE_THREADS = Integer.getInteger(AbstractParser.class.getName() + ".parseThreads",
+      Math.min(4, Runtime.getRuntime().availableProcessors()));
   
   public AbstractParser(String glob) {
     super(glob);
   }
 
   @Override
-  public Collection<PerformanceReport> parse(AbstractBuild<?, ?> build, Collection<File> reports, TaskListener listener) throws IOException 
+  public Collection<PerformanceReport> parse(AbstractBuild<?, ?> build, Collection<File> reports, final TaskListener listener) throws IOException 
   {
+    final List<File> reportFiles = new ArrayList<File>(reports);
     final List<PerformanceReport> result = new ArrayList<PerformanceReport>();
-
-    for (File reportFile : reports)
-    {      
-      // Attempt to load previously serialized instances from file or cache. 
-      final PerformanceReport deserializedReport = loadSerializedReport(reportFile);
-      if (deserializedReport != null) {
-        result.add(deserializedReport);
-        continue;
+    final int threads = Math.min(PARSE_THREADS, reportFiles.size());
+    
+    if (threads <= 1) {
+      for (File reportFile : reportFiles) {
+        final PerformanceReport report = loadOrParse(reportFile, listener);
+        if (report != null) {
+          result.add(report);
+        }
+      }
+      return result;
+    }
+    
+    listener.getLogger().println("Performance: Parsing " + reportFiles.size() + " report files using " + threads + " threads.");
+    final AtomicInteger done = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, 
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Performance report parser %d").build());
+    try {
+      final List<Future<PerformanceReport>> futures = new ArrayList<Future<PerformanceReport>>(reportFiles.size());
+      for (final File reportFile : reportFiles) {
+        futures.add(executor.submit(new Callable<PerformanceReport>() {
+          public PerformanceReport call() {
+            final PerformanceReport report = loadOrParse(reportFile, listener);
+            listener.getLogger().println("Performance: Processed " + done.incrementAndGet() + " of " + reportFiles.size() + " report files.");
+            return report;
+          }
+        }));
       }
       
-      // When serialized data cannot be used, the original JMeter files are to be processed.
-      try {
-        listener.getLogger().println("Performance: Parsing JMeter report file '" + reportFile + "'.");
-        final PerformanceReport report = parse(reportFile);
-        result.add(report);
-        saveSerializedReport(reportFile, report);
-      } catch (Throwable e) {
-        listener.getLogger().println("Performance: Failed to parse file '" + reportFile + "': " + e.getMessage());
-        e.printStackTrace(listener.getLogger());
+      // Collect in submission order, to keep the result independent of scheduling.
+      for (Future<PerformanceReport> future : futures) {
+        final PerformanceReport report = future.get();
+        if (report != null) {
+          result.add(report);
+        }
       }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing performance reports.");
+    } catch (ExecutionException e) {
+      // loadOrParse() does not throw.
+      throw new IOException("Unexpected failure while parsing performance reports: " + e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the report for a single file, either from previously serialized
+   * data or by parsing the file. Any problem is logged to the listener, in
+   * which case null is returned: one bad file does not abort the others.
+   */
+  private PerformanceReport loadOrParse(File reportFile, TaskListener listener) 
+  {
+    // Attempt to load previously serialized instances from file.
+    final PerformanceReport deserializedReport = loadSerializedReport(reportFile);
+    if (deserializedReport != null) {
+      return deserializedReport;
+    }
+    
+    // When serialized data cannot be used, the original JMeter files are to be processed.
+    try {
+      listener.getLogger().println("Performance: Parsing JMeter report file '" + reportFile + "'.");
+      final PerformanceReport report = parse(reportFile);
+      report.seal();
+      logSkippedSamples(report, reportFile.getName(), listener.getLogger());
+      saveSerializedReport(reportFile, report);
+      return report;
+    } catch (Throwable e) {
+      listener.getLogger().println("Performance: Failed to parse file '" + reportFile + "': " + e.getMessage());
+      e.printStackTrace(listener.getLogger());
+      return null;
     }
-    return result;
   }
   
   /**
@@ -86,17 +167,154 @@ public abstract class AbstractParser extends PerformanceReportParser
    *           On any exception.
    */
   abstract PerformanceReport parse(File reportFile) throws Exception;
+
+  /**
+   * Opens a report file for {@link #parse(File)}. Files that are compressed,
+   * in the workspace or when they were archived, are streamed through the
+   * decompressor, see {@link ReportFiles}.
+   */
+  static InputStream openReportFile(File reportFile) throws IOException
+  {
+    return ReportFiles.open(reportFile);
+  }
+
+  /**
+   * Opens the lines of a report file for {@link #parse(File)}, decompressing
+   * them like {@link #openReportFile(File)} does.
+   */
+  static LineSource openReportLines(File reportFile) throws IOException
+  {
+    return ReportFiles.openLines(reportFile);
+  }
+
+  /**
+   * Parses a report file where it is, typically in the workspace of an agent.
+   * Only the aggregates of the report travel back over the channel: per URI
+   * the counters, the duration histogram and the time buckets, but no samples.
+   * 
+   * @param reportFile
+   *          The source file (cannot be null).
+   * @return The aggregates of the report, which has no samples.
+   */
+  PerformanceReport parseRemotely(FilePath reportFile) throws IOException, InterruptedException
+  {
+    final byte[] data = reportFile.act(new RemoteParser(this));
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    final int skippedSamples = in.readInt();
+    final PerformanceReport report = ReportCodec.read(in);
+    report.addSkippedSamples(skippedSamples);
+    return report;
+  }
+
+  /**
+   * Tells the console of a build about the samples of a report that were
+   * skipped, as they have no label.
+   */
+  static void logSkippedSamples(PerformanceReport report, String fileName, PrintStream logger)
+  {
+    if (report.getSkippedSamples() > 0) {
+      logger.println("Performance: Skipped " + report.getSkippedSamples() + " samples without a label in '" + fileName
+          + "': please ensure your jmx file specifies name properly for each http sample.");
+    }
+  }
+
+  /**
+   * Parses a report file where it is, see {@link #parseRemotely(FilePath)},
+   * and stores it in the directory of a build.
+   * 
+   * When the report file is archived, only the report file is stored: the
+   * pages of the build parse it, as they need its samples. Otherwise the
+   * aggregates are stored as the serialized data of the report file, and are
+   * all that the pages of the build show.
+   * 
+   * @param localReport
+   *          The file in the build as which the report file is stored.
+   * @param archive
+   *          Whether the report file is copied into the build.
+   * @return The aggregates of the report, named after <code>localReport</code>.
+   */
+  PerformanceReport parseRemotely(FilePath reportFile, File localReport, boolean archive) throws IOException, InterruptedException
+  {
+    final PerformanceReport report = parseRemotely(reportFile);
+    report.setReportFileName(localReport.getName());
+    if (archive) {
+      ReportFiles.archive(reportFile, localReport);
+    } else {
+      localReport.getParentFile().mkdirs();
+      saveSerializedReport(localReport, report);
+    }
+    return report;
+  }
+
+  /**
+   * Parses a report file on the machine that holds it, and returns the amount
+   * of skipped samples followed by the aggregates of the report in the format
+   * of {@link ReportCodec}.
+   */
+  private static final class RemoteParser implements FileCallable<byte[]>
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final AbstractParser parser;
+
+    RemoteParser(AbstractParser parser) {
+      this.parser = parser;
+    }
+
+    public byte[] invoke(File reportFile, VirtualChannel channel) throws IOException {
+      final PerformanceReport report;
+      try {
+        report = parser.parse(reportFile);
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException("Unable to parse '" + reportFile + "': " + e.getMessage(), e);
+      }
+      report.seal();
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new DataOutputStream(out).writeInt(report.getSkippedSamples());
+      ReportCodec.write(report, out, false);
+      return out.toByteArray();
+    }
+  }
   
+  /**
+   * Tells if a file holds serialized data of a report file, rather than report data itself.
+   * Partial files that were left while such data was written count as well.
+   */
+  static boolean isSerializedDataFile(String fileName) {
+    return fileName.endsWith(SERIALIZED_DATA_FILE_SUFFIX) || fileName.endsWith(LEGACY_SERIALIZED_DATA_FILE_SUFFIX)
+        || fileName.endsWith(ReportFiles.PARTIAL_FILE_SUFFIX);
+  }
+
+  /**
+   * Returns the report file that a file in the report directory of a build
+   * stands for: the file itself when it holds report data, the report file of
+   * serialized data when that report file was not archived, and null
+   * otherwise. The returned file may not exist; its report is then loaded
+   * from the serialized data.
+   */
+  static File getReportFile(File file) {
+    final String name = file.getName();
+    if (name.endsWith(SERIALIZED_DATA_FILE_SUFFIX)) {
+      final File reportFile = new File(file.getParentFile(),
+          name.substring(0, name.length() - SERIALIZED_DATA_FILE_SUFFIX.length()));
+      return reportFile.exists() ? null : reportFile;
+    }
+    return isSerializedDataFile(name) ? null : file;
+  }
+
   /**
    * Returns a PerformanceReport instance for the provided report file, based on
    * previously serialized data.
    * 
-   * This method first attempts to load data from an internal cache. If the data
-   * is not in cache, data is obtained from a file on disc.
+   * Data is obtained from a file on disc: the aggregates right away, the
+   * samples of every URI when they are first needed. Data that was
+   * serialized by earlier versions of this plugin is migrated to the current
+   * format.
    * 
    * When no PerformanceReport instance has previously been serialized (or when
-   * such data cannot be read, for instance because of class file changes), this
-   * method returns null.
+   * such data cannot be read), this method returns null.
    * 
    * @param reportFile
    *          Report for which to return data. Cannot be null.
@@ -108,32 +326,47 @@ public abstract class AbstractParser extends PerformanceReportParser
       throw new NullPointerException("Argument 'reportFile' cannot be null.");
     }
     final String serialized = reportFile.getPath() + SERIALIZED_DATA_FILE_SUFFIX;
-    
+
+
+    try {
+      // samples are loaded from the file when a view needs them.
+      return ReportCodec.read(new File(serialized));
+    } catch (FileNotFoundException ex) {
+      // That's OK
+    } catch (Exception ex) {
+      LOGGER.log(Level.WARNING, "Reading serialized PerformanceReport instance from file '" + serialized + "' failed.", ex);
+    }
+    return migrateLegacySerializedReport(reportFile);
+  }
+
+  /**
+   * Reads data that earlier versions of this plugin stored through Java
+   * serialization, saves it in the current format, and removes the old file.
+   * 
+   * @return deserialized data, or null if there is no such data.
+   */
+  private static PerformanceReport migrateLegacySerializedReport(File reportFile)
+  {
+    final File legacy = new File(reportFile.getPath() + LEGACY_SERIALIZED_DATA_FILE_SUFFIX);
+
     ObjectInputStream in = null;
-    synchronized (CACHE) {
-      try {
-        PerformanceReport report = CACHE.getIfPresent(serialized);
-        if (report == null) {
-          in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(serialized)));
-          report = (PerformanceReport) in.readObject();
-          CACHE.put(serialized, report);
-        }
-        return report;
-      } catch (FileNotFoundException ex) {
-        // That's OK
-      } catch (Exception ex) {
-        LOGGER.log(Level.WARNING, "Reading serialized PerformanceReport instance from file '" + serialized + "' failed.", ex);
-      } finally {
-        if (in != null) {
-          try {
-            in.close();
-          } catch (IOException ex) {
-            LOGGER.log(Level.WARNING, "Unable to close inputstream after attempt to read data from file '" + serialized + "'.", ex);
-          }
-        }
+    try {
+      in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(legacy)));
+      final PerformanceReport report = (PerformanceReport) in.readObject();
+      in.close();
+      in = null;
+      if (saveSerializedReport(reportFile, report) && !legacy.delete()) {
+        LOGGER.log(Level.FINE, "Unable to remove migrated file '" + legacy + "'.");
       }
-      return null;
+      return report;
+    } catch (FileNotFoundException ex) {
+      // That's OK
+    } catch (Exception ex) {
+      LOGGER.log(Level.WARNING, "Reading serialized PerformanceReport instance from file '" + legacy + "' failed.", ex);
+    } finally {
+      closeQuietly(in, legacy.getPath());
     }
+    return null;
   }
   
   /**
@@ -145,8 +378,9 @@ public abstract class AbstractParser extends PerformanceReportParser
    *          null.
    * @param report
    *          The instance to serialize. Cannot be null.
+   * @return true if the data was saved.
    */
-  protected static void saveSerializedReport(File reportFile, PerformanceReport report)
+  protected static boolean saveSerializedReport(File reportFile, PerformanceReport report)
   {
     if (reportFile == null) {
       throw new NullPointerException("Argument 'reportFile' cannot be null.");
@@ -156,23 +390,35 @@ public abstract class AbstractParser extends PerformanceReportParser
     }
     final String serialized = reportFile.getPath() + SERIALIZED_DATA_FILE_SUFFIX;
 
-    synchronized (CACHE) {
-      CACHE.put(serialized, report);
-    }    
-
-    ObjectOutputStream out = null;
+    // without an archived report file, this is the only copy of the report: it must not be left truncated.
+    File partial = null;
+    OutputStream out = null;
     try {
-      out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(serialized)));
-      out.writeObject(report);
+      partial = ReportFiles.newPartialFile(new File(serialized));
+      out = new BufferedOutputStream(new FileOutputStream(partial));
+      ReportCodec.write(report, out);
+      out.close();
+      out = null;
+      ReportFiles.replace(partial, new File(serialized));
+      return true;
     } catch (Exception ex) {
       LOGGER.log(Level.WARNING, "Saving serialized PerformanceReport instance to file '" + serialized + "' failed.", ex);
+      return false;
     } finally {
-      if (out != null) {
-        try {
-          out.close();
-        } catch (IOException ex) {
-          LOGGER.log(Level.WARNING, "Unable to close outputstream after attempt to write data to file '" + serialized + "'.", ex);
-        }
+      closeQuietly(out, serialized);
+      if (partial != null && partial.exists()) {
+        partial.delete();
+      }
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable, String fileName)
+  {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException ex) {
+        LOGGER.log(Level.WARNING, "Unable to close stream of file '" + fileName + "'.", ex);
       }
     }
   }
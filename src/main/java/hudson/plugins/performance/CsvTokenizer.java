@@ -0,0 +1,186 @@
+package hudson.plugins.performance;
+
+import java.util.Arrays;
+
+/**
+ * A single-pass, quote-aware tokenizer for delimited lines that only keeps
+ * track of a fixed set of columns.
+ *
+ * Tokenizing a line does not allocate: the bounds of the wanted columns are
+ * recorded, and numbers and booleans are parsed from the line in place. Only
+ * columns that are requested as text are copied into a new string.
+ *
+ * A delimiter inside double quotes does not end a column, and a doubled quote
+ * inside quotes stands for a single quote character. Values are read without
+ * their enclosing quotes, except by {@link #getRawString(int)}.
+ *
+ * Instances are not thread safe; use one per parsing thread.
+ */
+final class CsvTokenizer {
+
+  private final char delimiter;
+
+  /**
+   * For every column of a line, the slot in which its bounds are kept, or -1
+   * if the column is not wanted.
+   */
+  private final int[] slots;
+
+  private final int[] starts;
+
+  private final int[] ends;
+
+  private CharSequence line;
+
+  /**
+   * @param delimiter
+   *          the column delimiter
+   * @param columns
+   *          the indexes of the wanted columns. The position of a column in
+   *          this array is the slot by which its value is retrieved.
+   */
+  CsvTokenizer(char delimiter, int... columns) {
+    this.delimiter = delimiter;
+    int max = -1;
+    for (int column : columns) {
+      max = Math.max(max, column);
+    }
+    slots = new int[max + 1];
+    Arrays.fill(slots, -1);
+    for (int slot = 0; slot < columns.length; slot++) {
+      slots[columns[slot]] = slot;
+    }
+    starts = new int[columns.length];
+    ends = new int[columns.length];
+  }
+
+  /**
+   * Returns the delimiter character for the configured delimiter of a parser.
+   * Besides a literal character, the escape sequence <code>\t</code> is
+   * understood as a tab.
+   */
+  static char delimiterOf(String delimiter) {
+    if (delimiter == null || delimiter.length() == 0) {
+      return ',';
+    }
+    if ("\\t".equals(delimiter)) {
+      return '\t';
+    }
+    return delimiter.charAt(0);
+  }
+
+  /**
+   * Locates the wanted columns of a line.
+   *
+   * @return false if the line has less columns than needed.
+   */
+  boolean tokenize(CharSequence line) {
+    this.line = line;
+    final int length = line.length();
+    int column = 0;
+    int start = 0;
+    boolean quoted = false;
+    for (int i = 0; i < length && column < slots.length; i++) {
+      final char c = line.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+      } else if (c == delimiter && !quoted) {
+        mark(column++, start, i);
+        start = i + 1;
+      }
+    }
+    if (column < slots.length) {
+      mark(column++, start, length);
+    }
+    return column >= slots.length;
+  }
+
+  private void mark(int column, int start, int end) {
+    final int slot = slots[column];
+    if (slot >= 0) {
+      starts[slot] = start;
+      ends[slot] = end;
+    }
+  }
+
+  private boolean isQuoted(int slot) {
+    final int start = starts[slot];
+    final int end = ends[slot];
+    return end - start >= 2 && line.charAt(start) == '"' && line.charAt(end - 1) == '"';
+  }
+
+  /**
+   * The start of the value of a column, without its enclosing quotes.
+   */
+  private int start(int slot) {
+    return isQuoted(slot) ? starts[slot] + 1 : starts[slot];
+  }
+
+  /**
+   * The end of the value of a column, without its enclosing quotes.
+   */
+  private int end(int slot) {
+    return isQuoted(slot) ? ends[slot] - 1 : ends[slot];
+  }
+
+  /**
+   * Parses the value of a column as a decimal long.
+   *
+   * @throws NumberFormatException
+   *           if the column does not contain a number.
+   */
+  long getLong(int slot) {
+    final int start = start(slot);
+    final int end = end(slot);
+    if (start >= end) {
+      throw new NumberFormatException("Empty column");
+    }
+    int i = start;
+    boolean negative = false;
+    if (line.charAt(i) == '-' || line.charAt(i) == '+') {
+      negative = line.charAt(i) == '-';
+      i++;
+      if (i == end) {
+        throw new NumberFormatException("For input string: \"" + getString(slot) + "\"");
+      }
+    }
+    long result = 0;
+    for (; i < end; i++) {
+      final int digit = line.charAt(i) - '0';
+      if (digit < 0 || digit > 9 || result > (Long.MAX_VALUE - digit) / 10) {
+        throw new NumberFormatException("For input string: \"" + getString(slot) + "\"");
+      }
+      result = result * 10 + digit;
+    }
+    return negative ? -result : result;
+  }
+
+  /**
+   * Parses the value of a column like {@link Boolean#parseBoolean(String)}.
+   */
+  boolean getBoolean(int slot) {
+    final int start = start(slot);
+    if (end(slot) - start != 4) {
+      return false;
+    }
+    return Character.toLowerCase(line.charAt(start)) == 't'
+        && Character.toLowerCase(line.charAt(start + 1)) == 'r'
+        && Character.toLowerCase(line.charAt(start + 2)) == 'u'
+        && Character.toLowerCase(line.charAt(start + 3)) == 'e';
+  }
+
+  /**
+   * Returns the value of a column as text.
+   */
+  String getString(int slot) {
+    final String value = line.subSequence(start(slot), end(slot)).toString();
+    return value.indexOf("\"\"") < 0 ? value : value.replace("\"\"", "\"");
+  }
+
+  /**
+   * Returns the text of a column as it is in the line, quotes included.
+   */
+  String getRawString(int slot) {
+    return line.subSequence(starts[slot], ends[slot]).toString();
+  }
+}
@@ -0,0 +1,194 @@
+package hudson.plugins.performance;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes the <code>dashBoard_*.xml</code> file that {@link PerformancePublisher}
+ * archives with every build, streaming it to disc.
+ *
+ * The file has a <code>results</code> root with either an
+ * <code>absoluteDefinition</code> or a <code>relativeDefinition</code> of the
+ * thresholds, followed by <code>average</code>, <code>median</code> and
+ * <code>percentile</code> sections. Each section holds one
+ * <code>uri</code> element per URI, with the URI in its <code>name</code>
+ * attribute and the response times as child elements.
+ */
+final class DashboardWriter implements Closeable {
+
+  private final OutputStream out;
+
+  private final XMLStreamWriter writer;
+
+  private int depth = 0;
+
+  DashboardWriter(File file) throws IOException {
+    out = new BufferedOutputStream(new FileOutputStream(file));
+    try {
+      writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+      writer.writeStartDocument("UTF-8", "1.0");
+      writer.writeCharacters("\n");
+      writer.writeStartElement("results");
+      depth = 1;
+    } catch (XMLStreamException e) {
+      out.close();
+      throw new IOException("Unable to write '" + file + "': " + e.getMessage());
+    }
+  }
+
+  /**
+   * Writes the thresholds on the percentage of errors, and the percentage of
+   * errors of the report.
+   */
+  void writeAbsoluteDefinition(int unstable, int failed, double calculated) throws IOException {
+    try {
+      start("absoluteDefinition");
+      element("unstable", String.valueOf(unstable));
+      element("failed", String.valueOf(failed));
+      element("calculated", String.valueOf(calculated));
+      end();
+    } catch (XMLStreamException e) {
+      throw new IOException("Unable to write the dashboard: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Writes the thresholds on the relative difference with another build.
+   *
+   * @param buildNum
+   *          "previous", or the number of the build that is compared with.
+   */
+  void writeRelativeDefinition(String buildNum, double unstableNegative, double unstablePositive,
+      double failedNegative, double failedPositive) throws IOException {
+    try {
+      start("relativeDefinition");
+      element("buildNum", buildNum);
+      start("unstable");
+      element("negative", String.valueOf(unstableNegative));
+      element("positive", String.valueOf(unstablePositive));
+      end();
+      start("failed");
+      element("negative", String.valueOf(failedNegative));
+      element("positive", String.valueOf(failedPositive));
+      end();
+      end();
+    } catch (XMLStreamException e) {
+      throw new IOException("Unable to write the dashboard: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Writes the response times of the URIs of a single build.
+   */
+  void writeMetrics(List<UriReport> uriReports) throws IOException {
+    try {
+      start("average");
+      for (UriReport uriReport : uriReports) {
+        startUri(uriReport.getStaplerUri());
+        element("currentBuildAvg", String.valueOf(uriReport.getAverage()));
+        end();
+      }
+      end();
+      start("median");
+      for (UriReport uriReport : uriReports) {
+        startUri(uriReport.getStaplerUri());
+        element("currentBuildMed", String.valueOf(uriReport.getMedian()));
+        end();
+      }
+      end();
+      start("percentile");
+      for (UriReport uriReport : uriReports) {
+        startUri(uriReport.getStaplerUri());
+        element("currentBuild90Line", String.valueOf(uriReport.get90Line()));
+        end();
+      }
+      end();
+    } catch (XMLStreamException e) {
+      throw new IOException("Unable to write the dashboard: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Writes the response times of the URIs of two builds, and their relative
+   * differences.
+   */
+  void writeMetrics(ReportComparison comparison) throws IOException {
+    try {
+      writeMetrics(comparison, "average", "previousBuildAvg", "currentBuildAvg", ReportComparison.Metric.AVERAGE);
+      writeMetrics(comparison, "median", "previousBuildMed", "currentBuildMed", ReportComparison.Metric.MEDIAN);
+      writeMetrics(comparison, "percentile", "previousBuild90Line", "currentBuild90Line",
+          ReportComparison.Metric.LINE90);
+    } catch (XMLStreamException e) {
+      throw new IOException("Unable to write the dashboard: " + e.getMessage(), e);
+    }
+  }
+
+  private void writeMetrics(ReportComparison comparison, String section, String previous, String current,
+      ReportComparison.Metric metric) throws XMLStreamException {
+    start(section);
+    for (ReportComparison.Entry entry : comparison.getEntries()) {
+      startUri(entry.getCurrentUri());
+      element(previous, String.valueOf(entry.getPrevious(metric)));
+      element(current, String.valueOf(entry.getCurrent(metric)));
+      element("relativeDiff", String.valueOf(entry.getDiff(metric)));
+      element("relativeDiffPercent", String.valueOf(entry.getDiffPercent(metric)));
+      end();
+    }
+    end();
+  }
+
+  private void startUri(String uri) throws XMLStreamException {
+    start("uri");
+    writer.writeAttribute("name", uri);
+  }
+
+  private void start(String name) throws XMLStreamException {
+    indent();
+    writer.writeStartElement(name);
+    depth++;
+  }
+
+  private void end() throws XMLStreamException {
+    depth--;
+    indent();
+    writer.writeEndElement();
+  }
+
+  private void element(String name, String value) throws XMLStreamException {
+    indent();
+    writer.writeStartElement(name);
+    writer.writeCharacters(value);
+    writer.writeEndElement();
+  }
+
+  private void indent() throws XMLStreamException {
+    writer.writeCharacters("\n");
+    for (int i = 0; i < depth; i++) {
+      writer.writeCharacters("\t");
+    }
+  }
+
+  /**
+   * Ends the document and closes the file.
+   */
+  public void close() throws IOException {
+    try {
+      end();
+      writer.writeEndDocument();
+      writer.close();
+    } catch (XMLStreamException e) {
+      throw new IOException("Unable to write the dashboard: " + e.getMessage(), e);
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package hudson.plugins.performance;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A streaming quantile sketch for durations, in the spirit of an HDR
+ * histogram.
+ *
+ * Values below 128 are counted exactly. Larger values are counted in
+ * log-linear buckets: every power of two is split into 64 buckets of equal
+ * width. The value reported for a bucket is its midpoint, which bounds the
+ * relative error of any percentile to 1/128 (less than 0.8%). The minimum and
+ * maximum are tracked exactly.
+ *
+ * Memory does not depend on the amount of recorded values, only on the
+ * largest one: durations of up to a minute take less than 800 counters.
+ *
+ * Instances are not thread safe.
+ */
+final class DurationHistogram implements Serializable {
+
+  private static final long serialVersionUID = -2284512853049611473L;
+
+  private static final int SUB_BUCKET_BITS = 7;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+  /**
+   * Counters, indexed by {@link #indexOf(long)}. Grown on demand.
+   */
+  private long[] counts = new long[SUB_BUCKET_COUNT];
+
+  private long count = 0;
+
+  private long min = Long.MAX_VALUE;
+
+  private long max = Long.MIN_VALUE;
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    final int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+    return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+  }
+
+  static long lowestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    final int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+    final long subBucket = index - shift * SUB_BUCKET_HALF_COUNT;
+    return subBucket << shift;
+  }
+
+  static long highestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    final int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+    return lowestValueAt(index) + (1L << shift) - 1;
+  }
+
+  /**
+   * Records a single value. Negative values are recorded as zero.
+   */
+  void record(long value) {
+    record(value, 1);
+  }
+
+  /**
+   * Records a value a number of times. Negative values are recorded as zero.
+   */
+  void record(long value, long times) {
+    if (times <= 0) {
+      return;
+    }
+    final long v = Math.max(0, value);
+    final int index = indexOf(v);
+    if (index >= counts.length) {
+      counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length + SUB_BUCKET_HALF_COUNT));
+    }
+    counts[index] += times;
+    count += times;
+    min = Math.min(min, v);
+    max = Math.max(max, v);
+  }
+
+  /**
+   * Adds all values recorded by another histogram to this one.
+   */
+  void add(DurationHistogram other) {
+    if (other.count == 0) {
+      return;
+    }
+    if (other.counts.length > counts.length) {
+      counts = Arrays.copyOf(counts, other.counts.length);
+    }
+    for (int i = 0; i < other.counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  long getCount() {
+    return count;
+  }
+
+  /**
+   * Estimates the heap used by this histogram, in bytes.
+   */
+  long estimateSize() {
+    return 64 + 8L * counts.length;
+  }
+
+  /**
+   * The smallest recorded value, or 0 when nothing was recorded.
+   */
+  long getMin() {
+    return count == 0 ? 0 : min;
+  }
+
+  /**
+   * The largest recorded value, or 0 when nothing was recorded.
+   */
+  long getMax() {
+    return count == 0 ? 0 : max;
+  }
+
+  /**
+   * Returns the value at the provided percentage of the recorded values, or 0
+   * when nothing was recorded. Like an index into a sorted list of all values,
+   * this is the value of rank <code>floor(count * percentage)</code>.
+   *
+   * @param percentage
+   *          a value between 0 and 1 (inclusive).
+   */
+  long getValueAt(double percentage) {
+    if (percentage < 0 || percentage > 1) {
+      throw new IllegalArgumentException("Argument 'percentage' must be a value between 0 and 1 (inclusive)");
+    }
+    if (count == 0) {
+      return 0;
+    }
+    final long rank = Math.min((long) (count * percentage), count - 1);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen > rank) {
+        final long low = lowestValueAt(i);
+        final long mid = low + (highestValueAt(i) - low) / 2;
+        return Math.max(min, Math.min(max, mid));
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Writes this histogram in the format of {@link ReportCodec}: the counters
+   * are written sparsely, as pairs of index delta and count.
+   */
+  void writeTo(DataOutput out) throws IOException {
+    ReportCodec.writeVarLong(out, count);
+    if (count == 0) {
+      return;
+    }
+    ReportCodec.writeVarLong(out, min);
+    ReportCodec.writeVarLong(out, max);
+    int used = 0;
+    for (long c : counts) {
+      if (c != 0) {
+        used++;
+      }
+    }
+    ReportCodec.writeVarLong(out, used);
+    int previous = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        ReportCodec.writeVarLong(out, i - previous);
+        ReportCodec.writeVarLong(out, counts[i]);
+        previous = i;
+      }
+    }
+  }
+
+  static DurationHistogram readFrom(DataInput in) throws IOException {
+    final DurationHistogram histogram = new DurationHistogram();
+    histogram.count = ReportCodec.readVarLong(in);
+    if (histogram.count == 0) {
+      return histogram;
+    }
+    histogram.min = ReportCodec.readVarLong(in);
+    histogram.max = ReportCodec.readVarLong(in);
+    histogram.counts = new long[Math.max(SUB_BUCKET_COUNT, indexOf(histogram.max) + 1)];
+    final long used = ReportCodec.readVarLong(in);
+    int index = 0;
+    for (long i = 0; i < used; i++) {
+      index += (int) ReportCodec.readVarLong(in);
+      if (index < 0 || index >= histogram.counts.length) {
+        throw new IOException("Corrupt histogram: counter " + index + " beyond maximum " + histogram.max);
+      }
+      histogram.counts[index] = ReportCodec.readVarLong(in);
+    }
+    return histogram;
+  }
+}
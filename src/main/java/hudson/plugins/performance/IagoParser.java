@@ -2,9 +2,7 @@ package hudson.plugins.performance;
 
 import hudson.Extension;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.lang.reflect.Type;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -38,6 +36,8 @@ import com.google.gson.annotations.SerializedName;
  * @author jwstric2
  */
 public class IagoParser extends AbstractParser {
+
+  private static final long serialVersionUID = 1L;
   
   public String statsDateFormat;
   public String delimiter;
@@ -84,12 +84,13 @@ public class IagoParser extends AbstractParser {
     final PerformanceReport report = new PerformanceReport();
     report.setReportFileName(reportFile.getName());
     
-    final BufferedReader reader = new BufferedReader(new FileReader(reportFile));
+    final LineSource reader = openReportLines(reportFile);
     try {
-      String line = reader.readLine();
-      while (line != null) {
+      CharSequence next = reader.nextLine();
+      while (next != null) {
+        final String line = next.toString();
         final HttpSample sample = this.getSample(line, reportFile.getName());
-        String nextLine = reader.readLine();
+        next = reader.nextLine();
         if (sample != null) {
           try {
             report.addSample(sample);
@@ -97,7 +98,6 @@ public class IagoParser extends AbstractParser {
             throw new RuntimeException("Error parsing file '"+ reportFile +"': Unable to add sample for line " + line, e);
           }
         }
-        line = nextLine;          
       }
     } finally {
       if (reader != null)
@@ -3,19 +3,47 @@ package hudson.plugins.performance;
 import hudson.Extension;
 import hudson.util.FormValidation;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.util.Date;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
-import org.xml.sax.SAXException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class JMeterCsvParser extends AbstractParser {
 
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Files larger than this amount of bytes are split into chunks of about this
+   * size, which are parsed in parallel. A value of 0 or less disables chunking.
+   */
+  static final long CHUNK_SIZE = Long.getLong(JMeterCsvParser.class.getName() + ".chunkSize", 64L * 1024 * 1024);
+
+  /**
+   * The amount of threads that parse chunks. They are shared by all files that
+   * are parsed at once, so that parsing several large files does not start
+   * more threads than there are processors.
+   */
+  static final int CHUNK_THREADS = Math.max(1, Integer.getInteger(JMeterCsvParser.class.getName() + ".chunkThreads",
+      Runtime.getRuntime().availableProcessors()));
+
+  private static final ExecutorService CHUNK_PARSER = Executors.newFixedThreadPool(CHUNK_THREADS,
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("JMeter CSV chunk parser %d").build());
+
   public final boolean skipFirstLine;
   public final String delimiter;
   public int timestampIdx = -1;
@@ -111,51 +139,212 @@ public class JMeterCsvParser extends AbstractParser {
 
   @Override
   PerformanceReport parse(File reportFile) throws Exception {
-    final PerformanceReport report = new PerformanceReport();
+    final PerformanceReport report;
+    if (ReportFiles.isCompressed(reportFile)) {
+      // compressed files cannot be split into chunks, they are read in one pass.
+      report = parse(openReportLines(reportFile), true);
+      report.setReportFileName(reportFile.getName());
+      return report;
+    }
+    final long[] bounds = chunkBounds(reportFile, CHUNK_SIZE);
+    if (bounds.length <= 2 || CHUNK_THREADS <= 1) {
+      report = parse(reportFile, 0, bounds[bounds.length - 1]);
+    } else {
+      report = parseChunks(reportFile, bounds);
+    }
     report.setReportFileName(reportFile.getName());
-    
-    final BufferedReader reader = new BufferedReader(new FileReader(reportFile));
+    return report;
+  }
+
+  /**
+   * Parses the chunks of a file in parallel, and merges the partial reports in
+   * the order of the chunks, so that samples keep their order in the file.
+   * Every partial report is merged and released as soon as it and those before
+   * it are parsed, and at most {@link #CHUNK_THREADS} chunks are parsed ahead,
+   * so that the partial reports do not add up to another copy of the report.
+   */
+  PerformanceReport parseChunks(final File reportFile, final long[] bounds) throws Exception {
+    final int chunks = bounds.length - 1;
+    final LinkedList<Future<PerformanceReport>> partials = new LinkedList<Future<PerformanceReport>>();
+    try {
+      final PerformanceReport report = new PerformanceReport();
+      int next = 0;
+      while (next < chunks || !partials.isEmpty()) {
+        while (next < chunks && partials.size() < CHUNK_THREADS) {
+          final long start = bounds[next];
+          final long end = bounds[next + 1];
+          partials.add(CHUNK_PARSER.submit(new Callable<PerformanceReport>() {
+            public PerformanceReport call() throws Exception {
+              return parse(reportFile, start, end);
+            }
+          }));
+          next++;
+        }
+        try {
+          report.merge(partials.removeFirst().get());
+        } catch (InterruptedException e) {
+          throw (IOException) new InterruptedIOException("Interrupted while parsing " + reportFile).initCause(e);
+        } catch (ExecutionException e) {
+          final Throwable cause = e.getCause();
+          throw cause instanceof Exception ? (Exception) cause : new IOException(cause);
+        }
+      }
+      return report;
+    } finally {
+      for (Future<PerformanceReport> partial : partials) {
+        partial.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Parses the lines in the byte range <code>[start, end)</code> of a file.
+   * The range must start at the beginning of a line. The first line of the
+   * file is skipped if so configured.
+   */
+  PerformanceReport parse(File reportFile, long start, long end) throws IOException {
+    return parse(ReportFiles.openLines(reportFile, start, end), start == 0);
+  }
+
+  /**
+   * Parses the lines of a source, and closes it.
+   * 
+   * @param fromStart
+   *          whether the source starts at the first line of the file.
+   */
+  private PerformanceReport parse(LineSource reader, boolean fromStart) throws IOException {
+    final PerformanceReport report = new PerformanceReport();
+    addSamples(report, reader, fromStart, false);
+    return report;
+  }
+
+  /**
+   * Adds the samples of the lines of a source to a sink, and closes the
+   * source. Used to parse files as well as the lines that were appended to a
+   * file, see {@link ReportTail}.
+   * 
+   * @param fromStart
+   *          whether the source starts at the first line of the file.
+   * @param skipBadLines
+   *          whether lines that are not samples of the configured format are
+   *          skipped, rather than failing.
+   * @return the amount of lines that were skipped.
+   * @throws IllegalArgumentException
+   *           if a line is not a sample of the configured format, and bad
+   *           lines are not skipped.
+   */
+  int addSamples(SampleSink sink, LineSource reader, boolean fromStart, boolean skipBadLines) throws IOException {
+    final CsvTokenizer tokenizer = newTokenizer();
+    int skipped = 0;
     try {
-      String line = reader.readLine();
-      if (line != null && skipFirstLine) {
-        line = reader.readLine();
+      CharSequence line = reader.nextLine();
+      if (line != null && skipFirstLine && fromStart) {
+        line = reader.nextLine();
       }
       while (line != null) {
-        final HttpSample sample = getSample(line);
-        if (sample != null) {
-          try {
-            report.addSample(sample);
-          } catch (SAXException e) {
-            throw new RuntimeException("Error parsing file '"+ reportFile +"': Unable to add sample for line " + line, e);
+        try {
+          addSample(sink, tokenizer, line);
+        } catch (IllegalArgumentException e) {
+          if (!skipBadLines) {
+            throw e;
           }
+          skipped++;
         }
-        line = reader.readLine();
+        line = reader.nextLine();
+      }
+    } finally {
+      reader.close();
+    }
+    return skipped;
+  }
+
+  /**
+   * Splits a file into chunks of about <code>chunkSize</code> bytes that start
+   * at the beginning of a line.
+   * 
+   * @return the offsets of the chunks, followed by the length of the file. A
+   *         file that is not split results in <code>[0, length]</code>.
+   */
+  static long[] chunkBounds(File file, long chunkSize) throws IOException {
+    final long length = file.length();
+    if (chunkSize <= 0 || length <= chunkSize) {
+      return new long[] { 0, length };
+    }
+
+    final List<Long> bounds = new ArrayList<Long>();
+    bounds.add(0L);
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final byte[] buffer = new byte[8192];
+      long offset = chunkSize;
+      while (offset < length) {
+        final long lineStart = nextLineStart(raf, offset, buffer);
+        if (lineStart >= length) {
+          break;
+        }
+        bounds.add(lineStart);
+        offset = lineStart + chunkSize;
       }
-      
-      return report;
     } finally {
-      if (reader != null) {
-        reader.close();
+      raf.close();
+    }
+    bounds.add(length);
+
+    final long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = bounds.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the offset of the first line that starts at or after the provided
+   * offset, or the length of the file if there is no such line.
+   */
+  private static long nextLineStart(RandomAccessFile raf, long offset, byte[] buffer) throws IOException {
+    long position = offset - 1;
+    raf.seek(position);
+    int read;
+    while ((read = raf.read(buffer)) > 0) {
+      for (int i = 0; i < read; i++) {
+        if (buffer[i] == '\n') {
+          return position + i + 1;
+        }
       }
+      position += read;
     }
+    return raf.length();
+  }
+
+  /**
+   * Slots of the columns that are read by {@link #addSample(SampleSink, CsvTokenizer, CharSequence)}.
+   */
+  private static final int TIMESTAMP = 0, ELAPSED = 1, RESPONSE_CODE = 2, SUCCESS = 3, URL = 4;
+
+  private CsvTokenizer newTokenizer() {
+    return new CsvTokenizer(CsvTokenizer.delimiterOf(delimiter), timestampIdx, elapsedIdx, responseCodeIdx, successIdx, urlIdx);
   }
 
   /**
-   * Parses a single HttpSample instance from a single CSV line.
+   * Parses a single sample from a single CSV line into a sink.
    * 
+   * @param sink
+   *          receives the sample.
+   * @param tokenizer
+   *          a tokenizer for the columns of this parser.
    * @param line
-   *          file line with the provided pattern (cannot be null).
-   * @return An sample instance (never null).
+   *          file line with the provided pattern (cannot be null). Empty lines
+   *          are skipped.
    */
-  private HttpSample getSample(String line) {
-    final HttpSample sample = new HttpSample();
-    final String commasNotInsideQuotes = ",(?=([^\"]*\"[^\"]*\")*[^\"]*$)";
-    final String[] values = line.split(commasNotInsideQuotes);
-    sample.setDate(new Date(Long.valueOf(values[timestampIdx])));
-    sample.setDuration(Long.valueOf(values[elapsedIdx]));
-    sample.setHttpCode(values[responseCodeIdx]);
-    sample.setSuccessful(Boolean.valueOf(values[successIdx]));
-    sample.setUri(values[urlIdx]);
-    return sample;
+  private void addSample(SampleSink sink, CsvTokenizer tokenizer, CharSequence line) {
+    if (line.length() == 0) {
+      return;
+    }
+    if (!tokenizer.tokenize(line)) {
+      throw new IllegalArgumentException("Missing columns in line: " + line);
+    }
+    // labels keep their quotes, as they did before the tokenizer, so that they identify the same URIs.
+    sink.addSample(sink.resolveLabel(tokenizer.getRawString(URL)), tokenizer.getLong(TIMESTAMP),
+        tokenizer.getLong(ELAPSED), tokenizer.getBoolean(SUCCESS), false, tokenizer.getString(RESPONSE_CODE), 0);
   }
 }
@@ -4,16 +4,15 @@ import hudson.Extension;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.Date;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 import org.kohsuke.stapler.DataBoundConstructor;
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * Parser for JMeter.
@@ -21,6 +20,8 @@ import org.xml.sax.helpers.DefaultHandler;
  * @author Kohsuke Kawaguchi
  */
 public class JMeterParser extends AbstractParser {
+
+  private static final long serialVersionUID = 1L;
   
   @Extension
   public static class DescriptorImpl extends PerformanceReportParserDescriptor {
@@ -63,7 +64,7 @@ public class JMeterParser extends AbstractParser {
   public static boolean isXmlFile(File file) throws IOException {
     BufferedReader reader = null;
     try {
-      reader = new BufferedReader(new FileReader(file));
+      reader = new BufferedReader(new InputStreamReader(openReportFile(file)));
       String firstLine;
       while ((firstLine = reader.readLine()) != null ) {
         if (firstLine.trim().length() == 0) continue; // skip empty lines.
@@ -79,110 +80,115 @@ public class JMeterParser extends AbstractParser {
   
   /**
    * A delegate for {@link #parse(File)} that can process XML data.
+   *
+   * Performance XML log format is in http://jakarta.apache.org/jmeter/usermanual/listeners.html
+   *
+   * There are two different tags which delimit jmeter samples: 
+   * - httpSample for http samples 
+   * - sample for non http samples
+   *
+   * Samples can be nested (sub results); only the outermost samples are
+   * added to the report.
+   *
+   * The file is read with a StAX pull parser. The attributes of a sample are
+   * read in a single pass, numbers are parsed without boxing, and samples are
+   * passed to the report as primitive values through its {@link SampleSink}
+   * methods. Labels are resolved to an id by the report, which keeps a single
+   * string per label.
    */
   PerformanceReport parseXml(File reportFile) throws Exception 
   {
-    final SAXParserFactory factory = SAXParserFactory.newInstance();
-    factory.setValidating(false);
-    factory.setNamespaceAware(false);
+    final XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
     
     final PerformanceReport report = new PerformanceReport();
     report.setReportFileName(reportFile.getName());
 
-    factory.newSAXParser().parse(reportFile, new DefaultHandler() {
-      HttpSample currentSample;
-      int counter = 0;
-
-      /**
-       * Performance XML log format is in http://jakarta.apache.org/jmeter/usermanual/listeners.html
-       *
-       * There are two different tags which delimit jmeter samples: 
-       * - httpSample for http samples 
-       * - sample for non http samples
-       *
-       * There are also two different XML formats which we have to handle: 
-       * v2.0 = "label", "timeStamp", "time", "success"
-       * v2.1 = "lb", "ts", "t", "s"
-       */
-      @Override
-      public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-        if (!"httpSample".equalsIgnoreCase(qName) && !"sample".equalsIgnoreCase(qName)) {
-          return;
-        }
-        
-        final HttpSample sample = new HttpSample();
-        
-        final String dateValue;
-        if (attributes.getValue("ts") != null) {
-          dateValue = attributes.getValue("ts");
-        } else {
-          dateValue = attributes.getValue("timeStamp");
-        }
-        sample.setDate( new Date(Long.valueOf(dateValue)) );
-        
-        final String durationValue;
-        if (attributes.getValue("t") != null) {
-          durationValue = attributes.getValue("t");
-        } else {
-          durationValue = attributes.getValue("time"); 
-        }
-        sample.setDuration(Long.valueOf(durationValue));
-        
-        final String successfulValue;
-        if (attributes.getValue("s") != null) {
-          successfulValue = attributes.getValue("s");
-        } else {
-          successfulValue = attributes.getValue("success");
-        }
-        sample.setSuccessful(Boolean.parseBoolean(successfulValue));
-        
-        final String uriValue;
-        if (attributes.getValue("lb") != null) {
-          uriValue = attributes.getValue("lb");
-        } else {
-          uriValue = attributes.getValue("label");
-        }
-        sample.setUri(uriValue);
-        
-        final String httpCodeValue;
-        if (attributes.getValue("rc") != null && attributes.getValue("rc").length() <= 3) {
-          httpCodeValue = attributes.getValue("rc");
-        } else {
-          httpCodeValue = "0";
-        }
-        sample.setHttpCode(httpCodeValue);
-        
-        final String sizeInKbValue;
-        if (attributes.getValue("by") != null) {
-          sizeInKbValue = attributes.getValue("by");
-        } else {
-          sizeInKbValue = "0";
-        }
-        sample.setSizeInKb(Double.valueOf(sizeInKbValue) / 1024d);
-        
-        if (counter == 0) {
-          currentSample = sample;
-        }
-          counter++;
-      }
-
-      @Override
-      public void endElement(String uri, String localName, String qName) {
-        if ("httpSample".equalsIgnoreCase(qName) || "sample".equalsIgnoreCase(qName)) {
-          if (counter == 1) {
-            try {
-              report.addSample(currentSample);
-            } catch (SAXException e) {
-              e.printStackTrace();
+    final InputStream in = openReportFile(reportFile);
+    try {
+      final XMLStreamReader reader = factory.createXMLStreamReader(in);
+      try {
+        int depth = 0;
+        while (reader.hasNext()) {
+          final int event = reader.next();
+          if (event == XMLStreamConstants.START_ELEMENT && isSampleElement(reader.getLocalName())) {
+            if (depth == 0) {
+              addSample(reader, report);
             }
+            depth++;
+          } else if (event == XMLStreamConstants.END_ELEMENT && isSampleElement(reader.getLocalName())) {
+            depth--;
           }
-          counter--;
         }
+      } finally {
+        reader.close();
       }
-    });
+    } finally {
+      in.close();
+    }
     
     return report;
   }
+
+  private static boolean isSampleElement(String name) {
+    return "httpSample".equalsIgnoreCase(name) || "sample".equalsIgnoreCase(name);
+  }
+
+  /**
+   * Adds the sample of the current sample element to a sink.
+   *
+   * There are two different XML formats which we have to handle: 
+   * v2.0 = "label", "timeStamp", "time", "success"
+   * v2.1 = "lb", "ts", "t", "s"
+   * When both are present, the v2.1 attribute wins.
+   */
+  private static void addSample(XMLStreamReader reader, SampleSink sink) {
+    String timestamp = null;
+    String duration = null;
+    String successful = null;
+    String label = null;
+    String httpCode = null;
+    String bytes = null;
+    boolean shortTimestamp = false;
+    boolean shortDuration = false;
+    boolean shortSuccessful = false;
+    boolean shortLabel = false;
+
+    final int count = reader.getAttributeCount();
+    for (int i = 0; i < count; i++) {
+      final String name = reader.getAttributeLocalName(i);
+      if ("ts".equals(name)) {
+        timestamp = reader.getAttributeValue(i);
+        shortTimestamp = true;
+      } else if ("t".equals(name)) {
+        duration = reader.getAttributeValue(i);
+        shortDuration = true;
+      } else if ("s".equals(name)) {
+        successful = reader.getAttributeValue(i);
+        shortSuccessful = true;
+      } else if ("lb".equals(name)) {
+        label = reader.getAttributeValue(i);
+        shortLabel = true;
+      } else if ("rc".equals(name)) {
+        httpCode = reader.getAttributeValue(i);
+      } else if ("by".equals(name)) {
+        bytes = reader.getAttributeValue(i);
+      } else if ("timeStamp".equals(name) && !shortTimestamp) {
+        timestamp = reader.getAttributeValue(i);
+      } else if ("time".equals(name) && !shortDuration) {
+        duration = reader.getAttributeValue(i);
+      } else if ("success".equals(name) && !shortSuccessful) {
+        successful = reader.getAttributeValue(i);
+      } else if ("label".equals(name) && !shortLabel) {
+        label = reader.getAttributeValue(i);
+      }
+    }
+
+    sink.addSample(sink.resolveLabel(label), Long.parseLong(timestamp), Long.parseLong(duration),
+        Boolean.parseBoolean(successful), false, httpCode != null && httpCode.length() <= 3 ? httpCode : "0",
+        bytes == null ? 0 : Double.parseDouble(bytes) / 1024d);
+  }
   
   /**
    * A delegate for {@link #parse(File)} that can process CSV data.
@@ -3,13 +3,14 @@ package hudson.plugins.performance;
 import hudson.Extension;
 
 import java.io.File;
-import java.util.Date;
+import java.io.InputStream;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
@@ -20,6 +21,8 @@ import org.xml.sax.helpers.DefaultHandler;
  */
 public class JUnitParser extends AbstractParser {
 
+  private static final long serialVersionUID = 1L;
+
   @Extension
   public static class DescriptorImpl extends PerformanceReportParserDescriptor {
     @Override
@@ -48,52 +51,63 @@ public class JUnitParser extends AbstractParser {
     final SAXParser parser = factory.newSAXParser();
     final PerformanceReport report = new PerformanceReport();
     report.setReportFileName(reportFile.getName());
-    parser.parse(reportFile, new DefaultHandler() 
-    {
-      private HttpSample currentSample;
-      private int status;
-
-      @Override
-      public void endElement(String uri, String localName, String qName) throws SAXException 
+    final InputStream in = openReportFile(reportFile);
+    final InputSource source = new InputSource(in);
+    source.setSystemId(reportFile.toURI().toString());
+    try {
+      parser.parse(source, new DefaultHandler() 
       {
-        if (("testsuite".equalsIgnoreCase(qName) || "testcase".equalsIgnoreCase(qName)) && status != 0) {
-          report.addSample(currentSample);
+        private int label;
+        private long duration;
+        private boolean successful;
+        private boolean errorObtained;
+        private int status;
+
+        private void addCurrentSample()
+        {
+          report.addSample(label, 0, duration, successful, errorObtained, "", 0);
           status = 0;
         }
-      }
-
-      /**
-       * JUnit XML format is: tag "testcase" with attributes: "name" and
-       * "time". If there is one error, there is an other tag, "failure"
-       * inside testcase tag. SOAPUI uses JUnit format
-       */
-      @Override
-      public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException 
-      {
-        if ("testcase".equalsIgnoreCase(qName)) {
-          if (status != 0) {
-            report.addSample(currentSample);
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException 
+        {
+          if (("testsuite".equalsIgnoreCase(qName) || "testcase".equalsIgnoreCase(qName)) && status != 0) {
+            addCurrentSample();
           }
-          status = 1;
-          currentSample = new HttpSample();
-          currentSample.setDate(new Date(0));
-          String time = attributes.getValue("time");
-          currentSample.setDuration(parseDuration(time));
-          currentSample.setSuccessful(true);
-          currentSample.setUri(attributes.getValue("classname") + "." + attributes.getValue("name"));
-          currentSample.setErrorObtained(false);
-        } else if ("failure".equalsIgnoreCase(qName) && status != 0) {
-          currentSample.setErrorObtained(false);
-          currentSample.setSuccessful(false);
-          report.addSample(currentSample);
-          status = 0;
-        } else if ("failure".equalsIgnoreCase(qName) && status != 0) {
-          currentSample.setErrorObtained(true);
-          report.addSample(currentSample);
-          status = 0;
         }
-      }
-    });
+
+        /**
+         * JUnit XML format is: tag "testcase" with attributes: "name" and
+         * "time". If there is one error, there is an other tag, "failure"
+         * inside testcase tag. SOAPUI uses JUnit format
+         */
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException 
+        {
+          if ("testcase".equalsIgnoreCase(qName)) {
+            if (status != 0) {
+              addCurrentSample();
+            }
+            status = 1;
+            String time = attributes.getValue("time");
+            duration = parseDuration(time);
+            successful = true;
+            label = report.resolveLabel(attributes.getValue("classname") + "." + attributes.getValue("name"));
+            errorObtained = false;
+          } else if ("failure".equalsIgnoreCase(qName) && status != 0) {
+            errorObtained = false;
+            successful = false;
+            addCurrentSample();
+          } else if ("failure".equalsIgnoreCase(qName) && status != 0) {
+            errorObtained = true;
+            addCurrentSample();
+          }
+        }
+      });
+    } finally {
+      in.close();
+    }
     return report;
   }
 
@@ -16,6 +16,8 @@ import org.kohsuke.stapler.DataBoundConstructor;
  */
 public class JmeterSummarizerParser extends AbstractParser {
 
+  private static final long serialVersionUID = 1L;
+
   public final String logDateFormat;
 
   @Extension
@@ -53,43 +55,41 @@ public class JmeterSummarizerParser extends AbstractParser {
     report.setReportFileName(reportFile.getName());
     report.setReportFileName(reportFile.getName());
     
-    Scanner s = null;
+    final LineSource s = openReportLines(reportFile);
     try {
-      s = new Scanner(reportFile);
       String key;
       String line;
       SimpleDateFormat dateFormat = new SimpleDateFormat(logDateFormat);
 
-      while (s.hasNextLine()) {
-        line = s.nextLine().replaceAll("=", " ");
-        if (line.contains("+") && line.contains("jmeter.reporters.Summariser:")) {
+      CharSequence next;
+      while ((next = s.nextLine()) != null) {
+        // only decode the summary lines.
+        if (MappedLineSource.indexOf(next, "jmeter.reporters.Summariser:") >= 0
+            && MappedLineSource.indexOf(next, "+") >= 0) {
+          line = next.toString().replaceAll("=", " ");
           Scanner scanner = null;
           try {
             scanner = new Scanner(line);
             final Pattern delimiter = scanner.delimiter();
             scanner.useDelimiter("INFO"); // as jmeter logs INFO mode
-            final HttpSample sample = new HttpSample();
             final String dateString = scanner.next();
-            sample.setDate(dateFormat.parse(dateString));
+            final long timestamp = dateFormat.parse(dateString).getTime();
             scanner.findInLine("jmeter.reporters.Summariser:");
             scanner.useDelimiter("\\+");
             key = scanner.next().trim();
             scanner.useDelimiter(delimiter);
             scanner.next();
-            sample.setSummarizerSamples(scanner.nextLong()); // set SamplesCount
-            scanner.findInLine("Avg:"); // set response time
-            sample.setDuration(scanner.nextLong());
-            sample.setSuccessful(true);
-            scanner.findInLine("Min:"); // set MIN
-            sample.setSummarizerMin(scanner.nextLong());
-            scanner.findInLine("Max:"); // set MAX
-            sample.setSummarizerMax(scanner.nextLong());
-            scanner.findInLine("Err:"); // set errors count
-            sample.setSummarizerErrors(scanner.nextInt());
-            // sample.setSummarizerErrors(
-            // Float.valueOf(scanner.next().replaceAll("[()%]","")));
-            sample.setUri(key);
-            report.addSample(sample);
+            final long samples = scanner.nextLong(); // SamplesCount
+            scanner.findInLine("Avg:"); // response time
+            final long duration = scanner.nextLong();
+            scanner.findInLine("Min:"); // MIN
+            scanner.nextLong();
+            scanner.findInLine("Max:"); // MAX
+            scanner.nextLong();
+            scanner.findInLine("Err:"); // errors count
+            final int errors = scanner.nextInt();
+            // errors = Float.valueOf(scanner.next().replaceAll("[()%]",""));
+            report.addSummary(report.resolveLabel(key), timestamp, duration, samples, errors);
           } finally {
             if (scanner != null) scanner.close();
           }
@@ -98,7 +98,7 @@ public class JmeterSummarizerParser extends AbstractParser {
       
       return report;
     } finally {
-      if (s != null) s.close();
+      s.close();
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package hudson.plugins.performance;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the lines of a report file without decoding them, see
+ * {@link MappedLineSource} and {@link StreamLineSource}.
+ */
+interface LineSource extends Closeable {
+
+  /**
+   * Returns the next line, or null at the end of the input. The returned line
+   * is only valid until the next call.
+   */
+  CharSequence nextLine() throws IOException;
+}
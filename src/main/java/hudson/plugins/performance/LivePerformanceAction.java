@@ -0,0 +1,162 @@
+package hudson.plugins.performance;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.util.ChartUtil;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jfree.data.time.FixedMillisecond;
+import org.jfree.data.time.TimeSeries;
+import org.jfree.data.time.TimeSeriesCollection;
+import org.jfree.data.xy.XYDataset;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * The interim reports of a running build, see {@link LivePerformanceWrapper}.
+ *
+ * The action is only attached to the build while it runs: the reports of the
+ * completed build are those of {@link PerformancePublisher}.
+ */
+public class LivePerformanceAction implements Action {
+
+  private final transient AbstractBuild<?, ?> build;
+
+  private final transient JMeterCsvParser parser;
+
+  private final transient int refreshSeconds;
+
+  /**
+   * The tails of the report files, keyed by their path in the workspace. Pages
+   * read them while they are polled.
+   */
+  private final transient ConcurrentMap<String, ReportTail> tails = new ConcurrentHashMap<String, ReportTail>();
+
+  /**
+   * The files that could not be read, which are not read anymore. Only used
+   * while polling.
+   */
+  private final transient Set<String> failed = new HashSet<String>();
+
+  LivePerformanceAction(AbstractBuild<?, ?> build, JMeterCsvParser parser, int refreshSeconds) {
+    this.build = build;
+    this.parser = parser;
+    this.refreshSeconds = refreshSeconds;
+  }
+
+  public AbstractBuild<?, ?> getBuild() {
+    return build;
+  }
+
+  public String getDisplayName() {
+    return Messages.LiveReport_DisplayName();
+  }
+
+  public String getIconFileName() {
+    return "graph.gif";
+  }
+
+  public String getUrlName() {
+    return "livePerformance";
+  }
+
+  public int getRefreshSeconds() {
+    return refreshSeconds;
+  }
+
+  /**
+   * Reads what was appended to the report files that match a pattern in the
+   * workspace. Files that appeared since the previous poll are read from their
+   * start. Polls do not overlap; pages are not blocked by them.
+   */
+  synchronized void poll(FilePath workspace, String glob, PrintStream logger) throws InterruptedException {
+    final List<FilePath> files;
+    try {
+      files = PerformancePublisher.locatePerformanceReports(workspace, glob);
+    } catch (IOException e) {
+      logger.println("Performance: Unable to look for live reports '" + glob + "': " + e.getMessage());
+      return;
+    }
+    for (FilePath file : files) {
+      final String path = file.getRemote();
+      if (failed.contains(path)) {
+        continue;
+      }
+      ReportTail tail = tails.get(path);
+      if (tail == null) {
+        tail = new ReportTail(parser, file.getName());
+        tails.put(path, tail);
+      }
+      final int skipped = tail.getSkippedLines();
+      try {
+        tail.poll(file);
+      } catch (IOException e) {
+        logger.println("Performance: Stopped reading live report '" + file.getName() + "': " + e.getMessage());
+        failed.add(path);
+        continue;
+      }
+      if (tail.getSkippedLines() > skipped) {
+        logger.println("Performance: Skipped " + (tail.getSkippedLines() - skipped) + " lines of live report '"
+            + file.getName() + "' that are not samples.");
+      }
+    }
+  }
+
+  /**
+   * A snapshot of the reports of the files that are read, keyed and ordered
+   * by the path of the files in the workspace.
+   */
+  public SortedMap<String, PerformanceReport> getReports() {
+    final SortedMap<String, PerformanceReport> reports = new TreeMap<String, PerformanceReport>();
+    for (Map.Entry<String, ReportTail> entry : tails.entrySet()) {
+      reports.put(entry.getKey(), entry.getValue().getReport());
+    }
+    return Collections.unmodifiableSortedMap(reports);
+  }
+
+  private PerformanceReport getReport(String path) {
+    final ReportTail tail = path == null ? null : tails.get(path);
+    return tail == null ? null : tail.getReport();
+  }
+
+  /**
+   * Draws the average response time per time interval of a report, over all
+   * its URIs. The report is selected by the path of its file.
+   */
+  public void doResponseTimeGraph(StaplerRequest request, StaplerResponse response) throws IOException {
+    final PerformanceReport report = getReport(request.getParameter("reportPath"));
+    final TimeSeries responseTimes = new TimeSeries(Messages.ProjectAction_RespondingTime(), FixedMillisecond.class);
+    if (report != null) {
+      final TimeBuckets buckets = new TimeBuckets();
+      for (UriReport uriReport : report.getUriListOrdered()) {
+        uriReport.addTimeBucketsTo(buckets);
+      }
+      for (int i = 0; i < buckets.size(); i++) {
+        if (buckets.getCount(i) > 0) {
+          responseTimes.add(new FixedMillisecond(buckets.getStart(i)), buckets.getAverage(i));
+        }
+      }
+    }
+
+    final TimeSeriesCollection collection = new TimeSeriesCollection();
+    collection.addSeries(responseTimes);
+    final ArrayList<XYDataset> dataset = new ArrayList<XYDataset>();
+    dataset.add(collection);
+    ChartUtil.generateGraph(request, response,
+        PerformanceProjectAction.createSummarizerTrend(dataset, report == null ? "" : report.getReportFileName()),
+        600, 225);
+  }
+}
@@ -0,0 +1,126 @@
+package hudson.plugins.performance;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.tasks.BuildWrapper;
+import hudson.tasks.BuildWrapperDescriptor;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Shows interim performance reports while a build runs, for tests that run
+ * for hours.
+ *
+ * Every <code>pollSeconds</code>, the CSV report files that match the pattern
+ * in the workspace are read from where the previous poll stopped, see
+ * {@link ReportTail}, and their samples are added to the reports of a
+ * {@link LivePerformanceAction} on the running build. XML files cannot be
+ * read while they are written, and are skipped.
+ */
+public class LivePerformanceWrapper extends BuildWrapper {
+
+  private static final Logger LOGGER = Logger.getLogger(LivePerformanceWrapper.class.getName());
+
+  private static final ScheduledExecutorService POLLER = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Performance live report poller %d").build());
+
+  /**
+   * GLOB patterns of the report files.
+   */
+  public final String glob;
+
+  /**
+   * The columns of the report files, as for {@link JMeterCsvParser}.
+   */
+  public final String pattern;
+
+  public final String delimiter;
+
+  public final boolean skipFirstLine;
+
+  public final int pollSeconds;
+
+  @DataBoundConstructor
+  public LivePerformanceWrapper(String glob, String pattern, String delimiter, boolean skipFirstLine,
+      int pollSeconds) {
+    this.glob = glob == null || glob.length() == 0 ? "**/*.jtl" : glob;
+    // the columns of the CSV files that JMeter writes by default, see JMeterParser.
+    this.pattern = pattern == null || pattern.length() == 0 ? "timestamp,elapsed,URL,responseCode,success" : pattern;
+    this.delimiter = delimiter == null || delimiter.length() == 0 ? "," : delimiter;
+    this.skipFirstLine = skipFirstLine;
+    this.pollSeconds = pollSeconds <= 0 ? 30 : pollSeconds;
+  }
+
+  @Override
+  public Environment setUp(AbstractBuild build, Launcher launcher, BuildListener listener) throws IOException,
+      InterruptedException {
+    final PrintStream logger = listener.getLogger();
+    final JMeterCsvParser parser;
+    try {
+      parser = new JMeterCsvParser(glob, pattern, delimiter, skipFirstLine);
+    } catch (Exception e) {
+      logger.println("Performance: Live reports are disabled: " + e.getMessage());
+      return new Environment() {
+      };
+    }
+
+    final FilePath workspace = build.getWorkspace();
+    final String expandedGlob = build.getEnvironment(listener).expand(glob);
+    final LivePerformanceAction action = new LivePerformanceAction(build, parser, pollSeconds);
+    build.addAction(action);
+    logger.println("Performance: Reading live reports '" + expandedGlob + "' every " + pollSeconds + " seconds.");
+
+    final ScheduledFuture<?> polling = POLLER.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          action.poll(workspace, expandedGlob, logger);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+          // an exception would cancel the polling; the next poll may succeed.
+          logger.println("Performance: Unable to read live reports: " + e);
+          LOGGER.log(Level.WARNING, "Unable to read the live performance reports of " + action.getBuild(), e);
+        }
+      }
+    }, pollSeconds, pollSeconds, TimeUnit.SECONDS);
+
+    return new Environment() {
+      @Override
+      public boolean tearDown(AbstractBuild build, BuildListener listener) throws IOException, InterruptedException {
+        polling.cancel(false);
+        // the interim reports are not kept with the build; the publisher reports on the complete files.
+        build.getActions().remove(action);
+        return true;
+      }
+    };
+  }
+
+  @Extension
+  public static class DescriptorImpl extends BuildWrapperDescriptor {
+
+    @Override
+    public String getDisplayName() {
+      return Messages.LiveWrapper_DisplayName();
+    }
+
+    @Override
+    public boolean isApplicable(AbstractProject<?, ?> item) {
+      return true;
+    }
+  }
+}
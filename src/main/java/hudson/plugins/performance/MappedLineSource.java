@@ -0,0 +1,207 @@
+package hudson.plugins.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the lines of a (byte range of a) file through memory mapped windows,
+ * without decoding them.
+ *
+ * Lines are returned as {@link CharSequence}s that are backed by the mapped
+ * bytes. Every byte is one character, which is fine to look for ASCII
+ * delimiters, digits or markers in any ASCII compatible encoding such as
+ * UTF-8. Only what is turned into a string through {@link Object#toString()}
+ * is decoded, with the {@link #CHARSET report charset}.
+ *
+ * Files are mapped one window at a time, so there is no limit on the size of a
+ * file. Lines end at <code>\n</code>; a preceding <code>\r</code> is dropped.
+ *
+ * {@link #close()} cannot unmap a window: the JDK unmaps it when the buffer is
+ * garbage collected. On Windows, a mapped file cannot be deleted or renamed
+ * until then, which would keep builds and their report files from being
+ * deleted. Report files are therefore only mapped when
+ * <code>hudson.plugins.performance.MappedLineSource.enabled</code> is true,
+ * which by default it is everywhere but on Windows; otherwise they are
+ * streamed, see {@link ReportFiles#openLines(File, long, long)}.
+ *
+ * Instances are not thread safe.
+ */
+final class MappedLineSource implements LineSource {
+
+  /**
+   * The charset in which report files are decoded.
+   */
+  static final Charset CHARSET = Charset.forName(System.getProperty(MappedLineSource.class.getName() + ".charset",
+      "UTF-8"));
+
+  /**
+   * Whether report files are mapped, or otherwise streamed.
+   */
+  static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(MappedLineSource.class.getName()
+      + ".enabled", String.valueOf(File.separatorChar != '\\')));
+
+  /**
+   * The size of the mapped windows, in bytes.
+   */
+  static final int WINDOW_SIZE = Integer.getInteger(MappedLineSource.class.getName() + ".windowSize",
+      64 * 1024 * 1024);
+
+  private final RandomAccessFile file;
+
+  private final FileChannel channel;
+
+  private final long end;
+
+  private final int windowSize;
+
+  private MappedByteBuffer window;
+
+  /**
+   * The offset in the file of the first byte of the current window.
+   */
+  private long windowStart;
+
+  /**
+   * The offset in the current window of the next line.
+   */
+  private int position;
+
+  MappedLineSource(File file) throws IOException {
+    this(file, 0, file.length());
+  }
+
+  /**
+   * Reads the lines in the byte range <code>[start, end)</code> of a file.
+   */
+  MappedLineSource(File file, long start, long end) throws IOException {
+    this(file, start, end, WINDOW_SIZE);
+  }
+
+  MappedLineSource(File file, long start, long end, int windowSize) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+    this.end = Math.min(end, channel.size());
+    this.windowSize = Math.max(1, windowSize);
+    map(start, this.windowSize);
+  }
+
+  private void map(long start, int size) throws IOException {
+    windowStart = start;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(0, Math.min(size, end - start)));
+    position = 0;
+  }
+
+  /**
+   * Returns the next line, or null at the end of the range. The returned line
+   * is only valid until the next call.
+   */
+  public CharSequence nextLine() throws IOException {
+    while (true) {
+      final int limit = window.limit();
+      if (position >= limit && windowStart + limit >= end) {
+        return null;
+      }
+      for (int i = position; i < limit; i++) {
+        if (window.get(i) == '\n') {
+          return line(i, i + 1);
+        }
+      }
+      if (windowStart + limit >= end) {
+        // the last line has no line break.
+        return line(limit, limit);
+      }
+      // the line continues beyond the window: map a window that starts at the
+      // line, or a larger one if the line is longer than a window.
+      int size = windowSize;
+      if (position == 0) {
+        if (limit == Integer.MAX_VALUE) {
+          throw new IOException("Line at offset " + windowStart + " is too long");
+        }
+        size = (int) Math.min(Integer.MAX_VALUE, 2L * limit);
+      }
+      map(windowStart + position, size);
+    }
+  }
+
+  private CharSequence line(int lineEnd, int next) {
+    int length = lineEnd - position;
+    if (length > 0 && window.get(lineEnd - 1) == '\r') {
+      length--;
+    }
+    final CharSequence line = new ByteLine(window, position, length);
+    position = next;
+    return line;
+  }
+
+  public void close() throws IOException {
+    window = null;
+    file.close();
+  }
+
+  /**
+   * Returns the index of the first occurrence of a string in a character
+   * sequence, or -1.
+   */
+  static int indexOf(CharSequence sequence, String string) {
+    final int last = sequence.length() - string.length();
+    outer: for (int i = 0; i <= last; i++) {
+      for (int j = 0; j < string.length(); j++) {
+        if (sequence.charAt(i + j) != string.charAt(j)) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  /**
+   * A line of bytes in a buffer.
+   */
+  static final class ByteLine implements CharSequence {
+
+    private final ByteBuffer buffer;
+
+    private final int offset;
+
+    private final int length;
+
+    ByteLine(ByteBuffer buffer, int offset, int length) {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    public int length() {
+      return length;
+    }
+
+    public char charAt(int index) {
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+      }
+      return (char) (buffer.get(offset + index) & 0xFF);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+      if (start < 0 || end > length || start > end) {
+        throw new IndexOutOfBoundsException("Start: " + start + ", End: " + end + ", Length: " + length);
+      }
+      return new ByteLine(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      final byte[] bytes = new byte[length];
+      final ByteBuffer source = buffer.duplicate();
+      source.position(offset);
+      source.get(bytes);
+      return new String(bytes, CHARSET);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package hudson.plugins.performance;
+
+import hudson.model.AbstractBuild;
+import hudson.model.ModelObject;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Shown instead of a {@link PerformanceReportMap} while the reports of a build
+ * are still being loaded by the {@link ReportCache}. The page reloads itself
+ * until they are available.
+ */
+public class PendingReportMap implements ModelObject {
+
+  private final PerformanceBuildAction buildAction;
+
+  PendingReportMap(PerformanceBuildAction buildAction) {
+    this.buildAction = buildAction;
+  }
+
+  public AbstractBuild<?, ?> getBuild() {
+    return buildAction.getBuild();
+  }
+
+  public String getDisplayName() {
+    return Messages.Report_DisplayName();
+  }
+
+  /**
+   * Any page of the reports shows this placeholder, until they are loaded.
+   */
+  public Object getDynamic(final String link, final StaplerRequest request,
+      final StaplerResponse response) {
+    return this;
+  }
+}
@@ -2,15 +2,31 @@ package hudson.plugins.performance;
 
 import hudson.model.AbstractBuild;
 import hudson.model.Action;
-import hudson.util.StreamTaskListener;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.kohsuke.stapler.StaplerProxy;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class PerformanceBuildAction implements Action, StaplerProxy {
   private final AbstractBuild<?, ?> build;
@@ -23,7 +39,17 @@ public class PerformanceBuildAction implements Action, StaplerProxy {
 
   private transient final PrintStream hudsonConsoleWriter;
 
-  private transient WeakReference<PerformanceReportMap> performanceReportMap;
+  /**
+   * The name of the file, in the build directory, that holds the summaries of
+   * all reports of a build.
+   */
+  static final String SUMMARY_FILE_NAME = "performance-summary.serialized-v2";
+
+  /**
+   * Summaries (aggregates without samples) of the reports of this build, keyed
+   * by report file name. Lazily read from {@link #getSummaryFile()}.
+   */
+  private transient volatile Map<String, PerformanceReport> summaries;
 
   private static final Logger logger = Logger.getLogger(PerformanceBuildAction.class.getName());
 
@@ -55,8 +81,23 @@ public class PerformanceBuildAction implements Action, StaplerProxy {
     return "performance";
   }
 
-  public PerformanceReportMap getTarget() {
-    return getPerformanceReportMap();
+  /**
+   * Returns the reports of this build, or a {@link PendingReportMap} if they
+   * are not loaded within {@link ReportCache#WAIT_MILLIS}, so that request
+   * threads do not block on parsing.
+   */
+  public Object getTarget() {
+    try {
+      return ReportCache.load(this).get(ReportCache.WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      return new PendingReportMap(this);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new PendingReportMap(this);
+    } catch (ExecutionException e) {
+      logger.log(Level.SEVERE, "Error creating new PerformanceReportMap()", e.getCause());
+      return null;
+    }
   }
 
   public AbstractBuild<?, ?> getBuild() {
@@ -67,27 +108,137 @@ public class PerformanceBuildAction implements Action, StaplerProxy {
     return hudsonConsoleWriter;
   }
 
+  /**
+   * Returns the reports of this build, from the {@link ReportCache}.
+   *
+   * @return the reports, or null if they cannot be parsed.
+   */
   public PerformanceReportMap getPerformanceReportMap() {
-    PerformanceReportMap reportMap = null;
-    WeakReference<PerformanceReportMap> wr = this.performanceReportMap;
-    if (wr != null) {
-      reportMap = wr.get();
-      if (reportMap != null)
-        return reportMap;
+    return ReportCache.get(this);
+  }
+
+  /**
+   * @deprecated report maps are held by the {@link ReportCache}; this puts
+   *             the referenced map into it.
+   */
+  @Deprecated
+  public void setPerformanceReportMap(
+      WeakReference<PerformanceReportMap> performanceReportMap) {
+    final PerformanceReportMap reportMap = performanceReportMap == null ? null : performanceReportMap.get();
+    if (reportMap != null) {
+      ReportCache.put(this, reportMap);
+    }
+  }
+
+  File getSummaryFile() {
+    return new File(build.getRootDir(), SUMMARY_FILE_NAME);
+  }
+
+  /**
+   * Returns the summary of a report of this build: its aggregates, without
+   * samples. This is what trend graphs need, at the cost of reading a small
+   * file instead of all report data.
+   *
+   * @param reportFileName
+   *          the file name of the report
+   * @return the summary, or null if this build has no such report.
+   */
+  public PerformanceReport getSummaryReport(String reportFileName) {
+    return getSummaries().get(reportFileName);
+  }
+
+  /**
+   * Returns the summaries of all reports of this build. For builds that were
+   * recorded before summaries existed, they are derived from the full reports
+   * once, and saved. Reading and deriving happen outside the monitor of this
+   * action, so that a slow parse does not block other callers.
+   */
+  Map<String, PerformanceReport> getSummaries() {
+    final Map<String, PerformanceReport> read = summaries;
+    if (read != null) {
+      return read;
+    }
+    final File file = getSummaryFile();
+    if (file.exists()) {
+      InputStream in = null;
+      try {
+        in = new BufferedInputStream(new FileInputStream(file));
+        return publishSummaries(adopt(ReportCodec.readSummaries(in)));
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to read performance summaries from '" + file + "'.", e);
+      } finally {
+        closeQuietly(in);
+      }
+    }
+    final PerformanceReportMap reportMap = getPerformanceReportMap();
+    if (reportMap != null) {
+      addSummaries(reportMap.getPerformanceReportMap().values());
+    }
+    return publishSummaries(Collections.<String, PerformanceReport> emptyMap());
+  }
+
+  /**
+   * Sets the summaries unless another thread did so first, and returns those
+   * that are set.
+   */
+  private synchronized Map<String, PerformanceReport> publishSummaries(Map<String, PerformanceReport> read) {
+    if (summaries == null) {
+      summaries = read;
+    }
+    return summaries;
+  }
+
+  /**
+   * Records the summaries of reports of this build, and saves all summaries.
+   * Called when reports are published.
+   */
+  synchronized void addSummaries(Collection<PerformanceReport> reports) {
+    final Map<String, PerformanceReport> all = new LinkedHashMap<String, PerformanceReport>();
+    if (summaries != null) {
+      all.putAll(summaries);
+    }
+    for (PerformanceReport report : reports) {
+      all.put(report.getReportFileName(), report);
     }
 
     try {
-      reportMap = new PerformanceReportMap(this, StreamTaskListener.fromStderr());
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ReportCodec.writeSummaries(all.values(), bytes);
+      // keep summaries only, not the (samples of the) reports themselves.
+      summaries = adopt(ReportCodec.readSummaries(new ByteArrayInputStream(bytes.toByteArray())));
+
+      final File file = getSummaryFile();
+      final File partial = ReportFiles.newPartialFile(file);
+      OutputStream out = null;
+      try {
+        out = new BufferedOutputStream(new FileOutputStream(partial));
+        bytes.writeTo(out);
+        out.close();
+        out = null;
+        ReportFiles.replace(partial, file);
+      } finally {
+        closeQuietly(out);
+        partial.delete();
+      }
     } catch (IOException e) {
-      logger.log(Level.SEVERE, "Error creating new PerformanceReportMap()", e);
+      logger.log(Level.WARNING, "Unable to save performance summaries of " + build, e);
     }
-    this.performanceReportMap = new WeakReference<PerformanceReportMap>(
-        reportMap);
-    return reportMap;
   }
 
-  public void setPerformanceReportMap(
-      WeakReference<PerformanceReportMap> performanceReportMap) {
-    this.performanceReportMap = performanceReportMap;
+  private Map<String, PerformanceReport> adopt(Map<String, PerformanceReport> reports) {
+    for (PerformanceReport report : reports.values()) {
+      report.setBuildAction(this);
+    }
+    return Collections.unmodifiableMap(reports);
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Unable to close stream.", e);
+      }
+    }
   }
 }
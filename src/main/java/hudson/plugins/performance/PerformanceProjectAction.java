@@ -3,6 +3,7 @@ package hudson.plugins.performance;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
+import hudson.model.Item;
 import hudson.util.*;
 import hudson.util.ChartUtil.NumberOnlyBuildLabel;
 
@@ -16,6 +17,8 @@ import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.*;
@@ -320,14 +323,10 @@ public final class PerformanceProjectAction implements Action {
         }
 
         NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
-        PerformanceBuildAction performanceBuildAction = currentBuild
-            .getAction(PerformanceBuildAction.class);
-        if (performanceBuildAction == null) {
+        if (currentBuild.getAction(PerformanceBuildAction.class) == null) {
           continue;
         }
-        PerformanceReport performanceReport = performanceBuildAction
-            .getPerformanceReportMap().getPerformanceReport(
-                performanceReportNameFile);
+        TrendCache.ReportMetrics performanceReport = TrendCache.get(currentBuild, performanceReportNameFile);
         if (performanceReport == null) {
           nbBuildsToAnalyze--;
           continue;
@@ -366,21 +365,16 @@ public final class PerformanceProjectAction implements Action {
         if (!buildsLimits.includedByStep(build.number)) {
           continue;
         }
-        PerformanceBuildAction performanceBuildAction = build
-            .getAction(PerformanceBuildAction.class);
-        if (performanceBuildAction == null) {
+        if (build.getAction(PerformanceBuildAction.class) == null) {
           continue;
         }
-        PerformanceReport performanceReport = performanceBuildAction
-            .getPerformanceReportMap().getPerformanceReport(
-                performanceReportNameFile);
+        TrendCache.ReportMetrics performanceReport = TrendCache.get(build, performanceReportNameFile);
         if (performanceReport == null) {
           nbBuildsToAnalyze--;
           continue;
         }
 
-        List<UriReport> uriListOrdered = performanceReport.getUriListOrdered();
-        for (UriReport uriReport : uriListOrdered) {
+        for (TrendCache.UriMetrics uriReport : performanceReport.getUris()) {
           dataSetBuilderAverage.add(uriReport.getAverage(), uriReport.getUri(), label);
         }
       }
@@ -415,14 +409,10 @@ public final class PerformanceProjectAction implements Action {
         }
 
         NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
-        PerformanceBuildAction performanceBuildAction = build
-            .getAction(PerformanceBuildAction.class);
-        if (performanceBuildAction == null) {
+        if (build.getAction(PerformanceBuildAction.class) == null) {
           continue;
         }
-        PerformanceReport performanceReport = performanceBuildAction
-            .getPerformanceReportMap().getPerformanceReport(
-                performanceReportNameFile);
+        TrendCache.ReportMetrics performanceReport = TrendCache.get(build, performanceReportNameFile);
         if (performanceReport == null) {
           nbBuildsToAnalyze--;
           continue;
@@ -465,21 +455,20 @@ public final class PerformanceProjectAction implements Action {
                     continue;
                 }
 
-                final PerformanceBuildAction performanceBuildAction = build.getAction(PerformanceBuildAction.class);
-                if (performanceBuildAction == null) {
+                if (build.getAction(PerformanceBuildAction.class) == null) {
                     continue;
                 }
 
-                final PerformanceReport performanceReport = performanceBuildAction
-                        .getPerformanceReportMap().getPerformanceReport(performanceReportNameFile);
+                final TrendCache.ReportMetrics performanceReport = TrendCache.get(build, performanceReportNameFile);
                 if (performanceReport == null) {
                     nbBuildsToAnalyze--;
                     continue;
                 }
 
-                final ThroughputReport throughputReport = new ThroughputReport(performanceReport);
                 final NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
-                dataSetBuilder.add(throughputReport.get(), Messages.ProjectAction_RequestsPerSeconds(), label);
+                dataSetBuilder.add(performanceReport.getThroughput(), Messages.ProjectAction_Average(), label);
+                dataSetBuilder.add(performanceReport.getSustainedThroughput(), Messages.ProjectAction_Sustained(), label);
+                dataSetBuilder.add(performanceReport.getPeakThroughput(), Messages.ProjectAction_Peak(), label);
             }
             nbBuildsToAnalyze--;
         }
@@ -510,25 +499,21 @@ public final class PerformanceProjectAction implements Action {
       AbstractBuild<?, ?> currentBuild = (AbstractBuild<?, ?>) iterator.next();
       if (buildsLimits.in(nbBuildsToAnalyze)) {
         NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
-        PerformanceBuildAction performanceBuildAction = currentBuild
-            .getAction(PerformanceBuildAction.class);
-        if (performanceBuildAction == null) {
+        if (currentBuild.getAction(PerformanceBuildAction.class) == null) {
           continue;
         }
-        PerformanceReport performanceReport = performanceBuildAction
-            .getPerformanceReportMap().getPerformanceReport(
-                performanceReportNameFile);
+        TrendCache.ReportMetrics performanceReport = TrendCache.get(currentBuild, performanceReportNameFile);
 
         if (performanceReport == null) {
           nbBuildsToAnalyze--;
           continue;
         }
 
-        for (Map.Entry<String, UriReport> entry : performanceReport.getUriReportMap().entrySet()) {
-          Long methodAvg = entry.getValue().getAverage();
-          float methodErrors = entry.getValue().getSummarizerErrors();
-          dataSetBuilderSummarizer.add(methodAvg, label, entry.getKey());
-          dataSetBuilderSummarizerErrors.add(methodErrors, label, entry.getKey());
+        for (TrendCache.UriMetrics uriReport : performanceReport.getUris()) {
+          Long methodAvg = uriReport.getAverage();
+          float methodErrors = uriReport.getSummarizerErrors();
+          dataSetBuilderSummarizer.add(methodAvg, label, uriReport.getStaplerUri());
+          dataSetBuilderSummarizerErrors.add(methodErrors, label, uriReport.getStaplerUri());
         }
       }
       nbBuildsToAnalyze--;
@@ -647,12 +632,12 @@ public final class PerformanceProjectAction implements Action {
     for (File entry : file.listFiles()) {
       if (entry.isDirectory()) {
         for (File e : entry.listFiles()) {
-          if (!e.getName().endsWith(".serialized") && !e.getName().endsWith(".serialized-v2")) {
+          if (!AbstractParser.isSerializedDataFile(e.getName())) {
             this.performanceReportList.add(e.getName());
           }
         }
       } else {
-        if (!entry.getName().endsWith(".serialized") && !entry.getName().endsWith(".serialized-v2")) {
+        if (!AbstractParser.isSerializedDataFile(entry.getName())) {
           this.performanceReportList.add(entry.getName());
         }
       }
@@ -764,14 +749,10 @@ public final class PerformanceProjectAction implements Action {
     for (AbstractBuild<?, ?> currentBuild : builds) {
       if (buildsLimits.in(nbBuildsToAnalyze)) {
         NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
-        PerformanceBuildAction performanceBuildAction = currentBuild
-            .getAction(PerformanceBuildAction.class);
-        if (performanceBuildAction == null) {
+        if (currentBuild.getAction(PerformanceBuildAction.class) == null) {
           continue;
         }
-        PerformanceReport report = null;
-        report = performanceBuildAction.getPerformanceReportMap()
-            .getPerformanceReport(performanceReportNameFile);
+        TrendCache.ReportMetrics report = TrendCache.get(currentBuild, performanceReportNameFile);
         if (report == null) {
           nbBuildsToAnalyze--;
           continue;
@@ -800,11 +781,31 @@ public final class PerformanceProjectAction implements Action {
     return dataSet;
   }
 
+  /**
+   * Drops the cached trend data of all builds of this project, and loads it
+   * again from the summaries of the builds. Requires the permission to
+   * configure the project.
+   */
+  public void doRebuildTrendCache(StaplerRequest request, StaplerResponse response) throws IOException {
+    project.checkPermission(Item.CONFIGURE);
+    if (!"POST".equals(request.getMethod())) {
+      response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+      return;
+    }
+    TrendCache.invalidate(project);
+    for (AbstractBuild<?, ?> build : project.getBuilds()) {
+      if (build.getAction(PerformanceBuildAction.class) != null) {
+        TrendCache.refresh(build);
+      }
+    }
+    response.sendRedirect2(".");
+  }
+
   public boolean ifSummarizerParserUsed(String filename) {
 
     return this.getProject().getBuilds().getLastBuild()
-        .getAction(PerformanceBuildAction.class).getPerformanceReportMap()
-        .getPerformanceReport(filename).ifSummarizerParserUsed(filename);
+        .getAction(PerformanceBuildAction.class).getSummaryReport(filename)
+        .ifSummarizerParserUsed(filename);
   }
 
   public boolean ifModePerformancePerTestCaseUsed() {
@@ -114,7 +114,6 @@ public class PerformancePublisher extends Recorder {
 
   String xmlDir = null;
 
-  String xml="";
 
   private static final String archive_directory = "archive";
 
@@ -132,8 +131,18 @@ public class PerformancePublisher extends Recorder {
 
   private boolean modeThroughput;
 
+  /**
+   * Parse reports in the workspace, possibly on an agent, and send only their
+   * aggregates to the master.
+   */
+  private boolean parseOnAgent;
+
+  /**
+   * Copy report files to the build on the master when they are parsed on an
+   * agent; null for configurations from before this option existed.
+   */
+  private Boolean archiveReportFiles;
 
-  @DataBoundConstructor
   public PerformancePublisher(int errorFailedThreshold,
                             int errorUnstableThreshold,
                             String errorUnstableResponseTimeThreshold,
@@ -148,6 +157,29 @@ public class PerformancePublisher extends Recorder {
                             boolean compareBuildPrevious,
                             List<? extends PerformanceReportParser> parsers,
                             boolean modeThroughput) {
+    this(errorFailedThreshold, errorUnstableThreshold, errorUnstableResponseTimeThreshold,
+        relativeFailedThresholdPositive, relativeFailedThresholdNegative, relativeUnstableThresholdPositive,
+        relativeUnstableThresholdNegative, nthBuildNumber, modePerformancePerTestCase, comparisonType,
+        modeOfThreshold, compareBuildPrevious, parsers, modeThroughput, false, true);
+  }
+
+  @DataBoundConstructor
+  public PerformancePublisher(int errorFailedThreshold,
+                            int errorUnstableThreshold,
+                            String errorUnstableResponseTimeThreshold,
+                            double relativeFailedThresholdPositive,
+                            double relativeFailedThresholdNegative,
+                            double relativeUnstableThresholdPositive,
+                            double relativeUnstableThresholdNegative,
+                            int nthBuildNumber,
+                            boolean modePerformancePerTestCase,
+                            String comparisonType,
+                            boolean modeOfThreshold,
+                            boolean compareBuildPrevious,
+                            List<? extends PerformanceReportParser> parsers,
+                            boolean modeThroughput,
+                            boolean parseOnAgent,
+                            boolean archiveReportFiles) {
 
     this.errorFailedThreshold = errorFailedThreshold;
     this.errorUnstableThreshold = errorUnstableThreshold;
@@ -169,6 +201,8 @@ public class PerformancePublisher extends Recorder {
     this.parsers = new ArrayList<PerformanceReportParser>(parsers);
     this.modePerformancePerTestCase = modePerformancePerTestCase;
     this.modeThroughput = modeThroughput;
+    this.parseOnAgent = parseOnAgent;
+    this.archiveReportFiles = archiveReportFiles;
   }
 
   public static File getPerformanceReport(AbstractBuild<?, ?> build,
@@ -344,8 +378,8 @@ public class PerformancePublisher extends Recorder {
             return true;
           }
 
-          List<File> localReports = copyReportsToMaster(build, logger, files, parser.getDescriptor().getDisplayName());
-          Collection<PerformanceReport> parsedReports = parser.parse(build, localReports, listener);
+          Collection<PerformanceReport> parsedReports = parseReports(build, listener, parser, files);
+          a.addSummaries(parsedReports);
 
           // mark the build as unstable or failure depending on the outcome.
           for (PerformanceReport r : parsedReports) {
@@ -359,31 +393,9 @@ public class PerformancePublisher extends Recorder {
             }
 
             xmlfile = new File(xmlDir+"/dashBoard_"+arr[arr.length-1].split("\\.")[0]+".xml");
-            xmlfile.createNewFile();
-
-            FileWriter fw = new FileWriter(xmlfile.getAbsoluteFile());
-            BufferedWriter bw = new BufferedWriter(fw);
-
-            xml = "<?xml version=\"1.0\"?>\n";
-            xml += "<results>\n";
-            xml += "<absoluteDefinition>\n";
-
-            String unstable = "\t<unstable>";
-            String failed = "\t<failed>";
-            String calc = "\t<calculated>";
-
-            unstable += errorUnstableThreshold;
-            failed += errorFailedThreshold;
-
-            String avg = "", med = "", perct = "";
-
-            avg += "<average>\n";
-            med += "<median>\n";
-            perct += "<percentile>\n";
 
             r.setBuildAction(a);
             double errorPercent = r.errorPercent();
-            calc += errorPercent;
 
             curruriList = r.getUriListOrdered();
 
@@ -418,78 +430,28 @@ public class PerformancePublisher extends Recorder {
                     + "% of errors [" + result + "]. Build status is: "
                     + build.getResult());
 
-            for (int i = 0; i < curruriList.size(); i++){
-                avg += "\t<"+curruriList.get(i).getStaplerUri()+">\n";
-                avg += "\t\t<currentBuildAvg>"+curruriList.get(i).getAverage()+"</currentBuildAvg>\n";
-                avg += "\t</"+curruriList.get(i).getStaplerUri()+">\n";
-
-
-                med += "\t<"+curruriList.get(i).getStaplerUri()+">\n";
-                med += "\t\t<currentBuildMed>"+curruriList.get(i).getMedian()+"</currentBuildMed>\n";
-                med += "\t</"+curruriList.get(i).getStaplerUri()+">\n";
-
-
-                perct += "\t<"+curruriList.get(i).getStaplerUri()+">\n";
-                perct += "\t\t<currentBuild90Line>"+curruriList.get(i).get90Line()+"</currentBuild90Line>\n";
-                perct += "\t</"+curruriList.get(i).getStaplerUri()+">\n";
-
+            DashboardWriter dashboard = new DashboardWriter(xmlfile);
+            try {
+              dashboard.writeAbsoluteDefinition(errorUnstableThreshold, errorFailedThreshold, errorPercent);
+              dashboard.writeMetrics(curruriList);
+            } finally {
+              dashboard.close();
             }
-            unstable += "</unstable>";
-            failed += "</failed>";
-            calc += "</calculated>";
-
-            avg += "</average>\n";
-            med += "</median>\n";
-            perct += "</percentile>\n";
-
-            xml += unstable+"\n";
-            xml += failed+"\n";
-            xml += calc+"\n";
-            xml += "</absoluteDefinition>\n";
-
-            xml += avg;
-            xml += med;
-            xml += perct;
-            xml += "</results>";
-
-            bw.write(xml);
-            bw.close();
-            fw.close();
 
             logger.print("\n\n\n");
           }
         }
       } catch(Exception e) {
+        logger.println("Performance: Failed to evaluate the reports and write the dashboard: " + e.getMessage());
+        e.printStackTrace(logger);
       }
     } else {
 
       // For relative comparisons between builds...
+      DashboardWriter dashboard = null;
       try {
 
         String name ="";
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-
-        String relative = "<relativeDefinition>\n";
-        String unstable = "\t<unstable>\n";
-        String failed = "\t<failed>\n";
-        String buildNo = "\t<buildNum>";
-
-        String inside = "";
-        String avg = "", med = "", perct = "";
-
-        unstable += "\t\t<negative>"+relativeUnstableThresholdNegative+"</negative>\n";
-        unstable += "\t\t<positive>"+relativeUnstableThresholdPositive+"</positive>\n";
-
-        failed += "\t\t<negative>"+relativeFailedThresholdNegative+"</negative>\n";
-        failed += "\t\t<positive>"+relativeFailedThresholdPositive+"</positive>\n";
-
-        unstable += "\t</unstable>\n";
-        failed += "\t</failed>\n";
-
-        avg += "<average>\n";
-        med += "<median>\n";
-        perct += "<percentile>\n";
 
         if (relativeFailedThresholdNegative <= 100 && relativeFailedThresholdPositive <= 100 ) {
             logger.println("Performance: Percentage of relative difference outside -"
@@ -535,8 +497,8 @@ public class PerformancePublisher extends Recorder {
             return true;
           }
 
-          List<File> localReports = copyReportsToMaster(build, logger, files, parser.getDescriptor().getDisplayName());
-          Collection<PerformanceReport> parsedReports = parser.parse(build, localReports, listener);
+          Collection<PerformanceReport> parsedReports = parseReports(build, listener, parser, files);
+          a.addSummaries(parsedReports);
 
 
           for (PerformanceReport r : parsedReports) {
@@ -556,30 +518,22 @@ public class PerformancePublisher extends Recorder {
         }
 
         xmlfile = new File(xmlDir+"/dashBoard_"+arr[arr.length-1].split("\\.")[0]+".xml");
-        xmlfile.createNewFile();
-
-        fw = new FileWriter(xmlfile.getAbsoluteFile());
-        bw = new BufferedWriter(fw);
-
-        bw.write("<?xml version=\"1.0\"?>\n");
-        bw.write("<results>\n");
+        dashboard = new DashboardWriter(xmlfile);
 
         // getting previous build/nth previous build..
         AbstractBuild<?,?> prevBuild = null;
+        String buildNo;
 
         if(compareBuildPrevious){
-          buildNo += "previous";
+          buildNo = "previous";
           prevBuild = build.getPreviousSuccessfulBuild();
         } else {
-          buildNo += nthBuildNumber;
+          buildNo = String.valueOf(nthBuildNumber);
           prevBuild = getnthBuild(build, listener);
         }
 
-        buildNo += "</buildNum>\n";
-        relative += buildNo + unstable + failed;
-        relative += "</relativeDefinition>";
-
-        bw.write(relative+"\n");
+        dashboard.writeRelativeDefinition(buildNo, relativeUnstableThresholdNegative, relativeUnstableThresholdPositive,
+            relativeFailedThresholdNegative, relativeFailedThresholdPositive);
 
         List<UriReport> prevuriList = null;
 
@@ -635,117 +589,50 @@ public class PerformancePublisher extends Recorder {
 
 
           //comparing the labels and calculating the differences...
-          for (int i = 0; i < prevuriList.size(); i++) {
-            for (int j = 0; j < curruriList.size(); j++) {
-              if(prevuriList.get(i).getStaplerUri().equalsIgnoreCase(curruriList.get(j).getStaplerUri())) {
-
-                relativeDiff = curruriList.get(j).getAverage() - prevuriList.get(i).getAverage();
-                relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).getAverage();
-                relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                relativeDiffPercent = relativeDiffPercent/100;
-
-                avg += "\t<"+curruriList.get(j).getStaplerUri()+">\n";
-                avg += "\t\t<previousBuildAvg>"+prevuriList.get(i).getAverage()+"</previousBuildAvg>\n";
-                avg += "\t\t<currentBuildAvg>"+curruriList.get(j).getAverage()+"</currentBuildAvg>\n";
-                avg += "\t\t<relativeDiff>"+relativeDiff+"</relativeDiff>\n";
-                avg += "\t\t<relativeDiffPercent>"+relativeDiffPercent+"</relativeDiffPercent>\n";
-                avg += "\t</"+curruriList.get(j).getStaplerUri()+">\n";
-
-                relativeDiff = curruriList.get(j).getMedian() - prevuriList.get(i).getMedian();
-                relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).getMedian();
-                relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                relativeDiffPercent = relativeDiffPercent/100;
-
-                med += "\t<"+curruriList.get(j).getStaplerUri()+">\n";
-                med += "\t\t<previousBuildMed>"+prevuriList.get(i).getMedian()+"</previousBuildMed>\n";
-                med += "\t\t<currentBuildMed>"+curruriList.get(j).getMedian()+"</currentBuildMed>\n";
-                med += "\t\t<relativeDiff>"+relativeDiff+"</relativeDiff>\n";
-                med += "\t\t<relativeDiffPercent>"+relativeDiffPercent+"</relativeDiffPercent>\n";
-                med += "\t</"+curruriList.get(j).getStaplerUri()+">\n";
-
-                relativeDiff = curruriList.get(j).get90Line() - prevuriList.get(i).get90Line();
-                relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).get90Line();
-                relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                relativeDiffPercent = relativeDiffPercent/100;
-
-                perct += "\t<"+curruriList.get(j).getStaplerUri()+">\n";
-                perct += "\t\t<previousBuild90Line>"+prevuriList.get(i).get90Line()+"</previousBuild90Line>\n";
-                perct += "\t\t<currentBuild90Line>"+curruriList.get(j).get90Line()+"</currentBuild90Line>\n";
-                perct += "\t\t<relativeDiff>"+relativeDiff+"</relativeDiff>\n";
-                perct += "\t\t<relativeDiffPercent>"+relativeDiffPercent+"</relativeDiffPercent>\n";
-                perct += "\t</"+curruriList.get(j).getStaplerUri()+">\n";
-
-
-                if(configType.equalsIgnoreCase("ART")) {
-
-                  relativeDiff = curruriList.get(j).getAverage() - prevuriList.get(i).getAverage();
-                  relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).getAverage();
-
-                  relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                  relativeDiffPercent = relativeDiffPercent/100;
-
-                  logger.println(prevuriList.get(i).getStaplerUri() + "\t" + curruriList.get(j).getStaplerUri() + "\t\t" +
-                          prevuriList.get(i).getAverage() + "\t\t\t" + curruriList.get(j).getAverage() + "\t\t\t" + relativeDiff + "\t\t" + relativeDiffPercent);
-
-
-                } else if(configType.equalsIgnoreCase("MRT")) {
-
-                  relativeDiff = curruriList.get(j).getMedian() - prevuriList.get(i).getMedian();
-                  relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).getMedian();
-
-                  relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                  relativeDiffPercent = relativeDiffPercent/100;
-
-                  logger.println(prevuriList.get(i).getStaplerUri() + "\t" + curruriList.get(j).getStaplerUri() + "\t\t" +
-                          prevuriList.get(i).getMedian() + "\t\t\t" + curruriList.get(j).getMedian() + "\t\t\t" + relativeDiff + "\t\t" + relativeDiffPercent);
-
-
-                } else if(configType.equalsIgnoreCase("PRT")) {
-
-                  relativeDiff = curruriList.get(j).get90Line() - prevuriList.get(i).get90Line();
-                  relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).get90Line();
-
-                  relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                  relativeDiffPercent = relativeDiffPercent/100;
-
-                  logger.println(prevuriList.get(i).getStaplerUri() + "\t" + curruriList.get(j).getStaplerUri() + "\t\t" +
-                          prevuriList.get(i).get90Line() + "\t\t\t" + curruriList.get(j).get90Line() + "\t\t\t" + relativeDiff + "\t\t" + relativeDiffPercent);
-
-                }
-
-                //setting the build status based on the differences calculated...
-                if(relativeDiffPercent < 0) {
-                  if (relativeFailedThresholdNegative >= 0 && Math.abs(relativeDiffPercent) - relativeFailedThresholdNegative > thresholdTolerance) {
+          final ReportComparison comparison = ReportComparison.compare(prevuriList, curruriList);
+          final ReportComparison.Metric metric = ReportComparison.Metric.of(configType);
+          // thresholds apply to the 90 percentile when the comparison type is unknown.
+          final ReportComparison.Metric thresholdMetric = metric != null ? metric : ReportComparison.Metric.LINE90;
+
+          for (ReportComparison.Entry entry : comparison.getEntries()) {
+            relativeDiff = entry.getDiff(thresholdMetric);
+            relativeDiffPercent = entry.getDiffPercent(thresholdMetric);
+
+            if (metric != null) {
+              logger.println(entry.getPreviousUri() + "\t" + entry.getCurrentUri() + "\t\t" +
+                      entry.getPrevious(metric) + "\t\t\t" + entry.getCurrent(metric) + "\t\t\t" + relativeDiff + "\t\t" + relativeDiffPercent);
+            }
 
-                    result = Result.FAILURE;
-                    build.setResult(Result.FAILURE);
-                    failedLabel = prevuriList.get(i).getStaplerUri();
+            //setting the build status based on the differences calculated...
+            if(relativeDiffPercent < 0) {
+              if (relativeFailedThresholdNegative >= 0 && Math.abs(relativeDiffPercent) - relativeFailedThresholdNegative > thresholdTolerance) {
 
-                  } else if (relativeUnstableThresholdNegative >= 0 && Math.abs(relativeDiffPercent) - relativeUnstableThresholdNegative > thresholdTolerance) {
+                result = Result.FAILURE;
+                build.setResult(Result.FAILURE);
+                failedLabel = entry.getPreviousUri();
 
-                    result = Result.UNSTABLE;
-                    unStableLabel = prevuriList.get(i).getStaplerUri();
-                  }
-                } else if(relativeDiffPercent >= 0) {
+              } else if (relativeUnstableThresholdNegative >= 0 && Math.abs(relativeDiffPercent) - relativeUnstableThresholdNegative > thresholdTolerance) {
 
-                  if (relativeFailedThresholdPositive >= 0 && Math.abs(relativeDiffPercent) - relativeFailedThresholdPositive > thresholdTolerance) {
+                result = Result.UNSTABLE;
+                unStableLabel = entry.getPreviousUri();
+              }
+            } else if(relativeDiffPercent >= 0) {
 
-                    result = Result.FAILURE;
-                    build.setResult(Result.FAILURE);
-                    failedLabel = prevuriList.get(i).getStaplerUri();
+              if (relativeFailedThresholdPositive >= 0 && Math.abs(relativeDiffPercent) - relativeFailedThresholdPositive > thresholdTolerance) {
 
-                  } else if (relativeUnstableThresholdPositive >= 0 && Math.abs(relativeDiffPercent) - relativeUnstableThresholdPositive > thresholdTolerance) {
+                result = Result.FAILURE;
+                build.setResult(Result.FAILURE);
+                failedLabel = entry.getPreviousUri();
 
-                    result = Result.UNSTABLE;
-                    unStableLabel = prevuriList.get(i).getStaplerUri();
-                  }
-                }
+              } else if (relativeUnstableThresholdPositive >= 0 && Math.abs(relativeDiffPercent) - relativeUnstableThresholdPositive > thresholdTolerance) {
 
-                if (result.isWorseThan(build.getResult())) {
-                  build.setResult(result);
-                }
+                result = Result.UNSTABLE;
+                unStableLabel = entry.getPreviousUri();
               }
+            }
 
+            if (result.isWorseThan(build.getResult())) {
+              build.setResult(result);
             }
           }
 
@@ -753,24 +640,55 @@ public class PerformancePublisher extends Recorder {
           String labelResult = "\nThe label ";
           logger.print((failedLabel != null) ? labelResult + "\"" + failedLabel + "\"" + " caused the build to fail\n" : (unStableLabel != null) ? labelResult + "\"" + unStableLabel + "\"" + " made the build unstable\n" : "");
 
-          avg += "</average>\n";
-          med += "</median>\n";
-          perct += "</percentile>";
-
-          inside += avg + med + perct;
-          bw.write(inside+"\n");
-
+          dashboard.writeMetrics(comparison);
         }
-        bw.write("</results>");
-        bw.close();
-        fw.close();
 
       } catch (Exception e){
+        logger.println("Performance: Failed to compare the reports and write the dashboard: " + e.getMessage());
+        e.printStackTrace(logger);
+      } finally {
+        if (dashboard != null) {
+          dashboard.close();
+        }
       }
     }
     return true;
   }
 
+  /**
+   * Parses the report files of a parser, either on the master after copying
+   * them into the build, or where they are when {@link #isParseOnAgent()}.
+   */
+  private Collection<PerformanceReport> parseReports(AbstractBuild<?, ?> build, BuildListener listener,
+      PerformanceReportParser parser, List<FilePath> files) throws IOException, InterruptedException {
+    final PrintStream logger = listener.getLogger();
+    final String parserDisplayName = parser.getDescriptor().getDisplayName();
+    if (!parseOnAgent || !(parser instanceof AbstractParser)) {
+      return parser.parse(build, copyReportsToMaster(build, logger, files, parserDisplayName), listener);
+    }
+
+    final List<PerformanceReport> reports = new ArrayList<PerformanceReport>();
+    for (FilePath src : files) {
+      if (src.isDirectory()) {
+        logger.println("Performance: File '" + src.getName()
+            + "' is a directory, not a Performance Report");
+        continue;
+      }
+      final File localReport = getPerformanceReport(build, parserDisplayName, src.getName());
+      logger.println("Performance: Parsing report file '" + src.getName() + "' in the workspace.");
+      final PerformanceReport report;
+      try {
+        report = ((AbstractParser) parser).parseRemotely(src, localReport, isArchiveReportFiles());
+      } catch (IOException e) {
+        logger.println("Performance: Failed to parse file '" + src.getName() + "': " + e.getMessage());
+        continue;
+      }
+      AbstractParser.logSkippedSamples(report, src.getName(), logger);
+      reports.add(report);
+    }
+    return reports;
+  }
+
   private List<File> copyReportsToMaster(AbstractBuild<?, ?> build,
       PrintStream logger, List<FilePath> files, String parserDisplayName)
       throws IOException, InterruptedException {
@@ -783,7 +701,7 @@ public class PerformancePublisher extends Recorder {
             + "' is a directory, not a Performance Report");
         continue;
       }
-      src.copyTo(new FilePath(localReport));
+      ReportFiles.archive(src, localReport);
       localReports.add(localReport);
     }
     return localReports;
@@ -901,14 +819,12 @@ public class PerformancePublisher extends Recorder {
 
     for (int i = 0; i < localReport.length; i++) {
 
-        String name = localReport[i].getName();
-        String[] arr = name.split("\\.");
-
-        //skip the serialized jmeter report file
-        if(arr[arr.length-1].equalsIgnoreCase("serialized"))
+        //skip the serialized jmeter report file, unless its report file was not archived
+        File reportFile = AbstractParser.getReportFile(localReport[i]);
+        if (reportFile == null)
             continue;
 
-        localReports.add(localReport[i]);
+        localReports.add(reportFile);
     }
     return localReports;
   }
@@ -1002,6 +918,26 @@ public class PerformancePublisher extends Recorder {
     this.modeThroughput = modeThroughput;
   }
 
+  public boolean isParseOnAgent() {
+    return parseOnAgent;
+  }
+
+  public void setParseOnAgent(boolean parseOnAgent) {
+    this.parseOnAgent = parseOnAgent;
+  }
+
+  /**
+   * Tells if report files are copied to the build when they are parsed on an
+   * agent. Reports parsed on the master are always copied.
+   */
+  public boolean isArchiveReportFiles() {
+    return archiveReportFiles == null || archiveReportFiles;
+  }
+
+  public void setArchiveReportFiles(boolean archiveReportFiles) {
+    this.archiveReportFiles = archiveReportFiles;
+  }
+
 }
 
 
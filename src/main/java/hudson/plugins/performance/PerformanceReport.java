@@ -2,14 +2,22 @@ package hudson.plugins.performance;
 
 import hudson.model.AbstractBuild;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xml.sax.SAXException;
 
@@ -17,10 +25,18 @@ import org.xml.sax.SAXException;
  * Represents a single performance report, which consists of multiple
  * {@link UriReport}s for different URLs that was tested.
  * 
+ * Samples may be added by several threads at once. Every sample is only
+ * accounted for in the {@link UriReport} of its URI, under the lock of that
+ * report, so threads only contend when they add samples of the same URI. The
+ * aggregates of the whole report are derived from the URI reports when they
+ * are first read after samples were added, see {@link #seal()}, into an
+ * immutable snapshot that all readers read, so that they never see some
+ * aggregates derived before and others after samples were added.
+ * 
  * This object belongs under {@link PerformanceReportMap}.
  */
 public class PerformanceReport extends AbstractReport implements Serializable,
-    Comparable<PerformanceReport> {
+    Comparable<PerformanceReport>, SampleSink {
 
   private static final long serialVersionUID = 675698410989941826L;
 
@@ -33,12 +49,60 @@ public class PerformanceReport extends AbstractReport implements Serializable,
    */
   private final Map<String, UriReport> uriReportMap = new LinkedHashMap<String, UriReport>();
 
-  private PerformanceReport lastBuildReport;
+  /**
+   * The labels of the samples that were added, by their id. Replaced by a
+   * larger copy when a label is added, so that it can be read without
+   * locking.
+   */
+  private transient volatile Label[] labels = new Label[0];
+
+  /**
+   * The ids of the {@link #labels}, keyed by the raw label.
+   */
+  private transient ConcurrentMap<String, Integer> labelIds = new ConcurrentHashMap<String, Integer>();
+
+  /**
+   * Whether samples were added since the {@link #aggregates} were derived
+   * from the URI reports.
+   */
+  private transient volatile boolean dirty;
+
+  /**
+   * The aggregates that all readers read. Replaced as a whole when they are
+   * derived again.
+   */
+  private transient volatile Aggregates aggregates = new Aggregates();
+
+  /**
+   * The summary of this report in the previous build. Resolved on first use
+   * by {@link #getLastBuildReport()}, unless set explicitly.
+   */
+  private transient volatile PerformanceReport lastBuildReport;
+
+  private transient volatile boolean lastBuildReportResolved;
+
+  /**
+   * Whether the URI reports only aggregate samples, without keeping them.
+   */
+  private transient boolean aggregatesOnly;
+
+  /**
+   * The amount of samples that were skipped as they have no label. Reported
+   * to the console of the build once the report is parsed.
+   */
+  private transient AtomicInteger skippedSamples = new AtomicInteger();
+
+  /*
+   * The fields below are the serialized form of the aggregates, as written by
+   * earlier versions of this class. They are only read and written through
+   * the Java serialization; at run time, the aggregates are read from the
+   * snapshot in #aggregates.
+   */
 
   /**
-   * A lazy cache of all duration values of all HTTP samples in all UriReports, ordered by duration. 
+   * A sketch of the durations of all HTTP samples in all UriReports, used to answer percentiles.
    */
-  private transient List<Long> durationsSortedBySize = null;
+  private DurationHistogram histogram = new DurationHistogram();
   
   /**
    * A lazy cache of all UriReports, reverse-ordered.
@@ -82,41 +146,206 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   
 
   public static String asStaplerURI(String uri) {
-    return uri.replace("http:", "").replaceAll("/", "_");
+    return uri.replace("http:", "").replace('/', '_');
   }
   
+  /**
+   * Adds a sample. This adapts {@link HttpSample}s to the {@link SampleSink}
+   * methods that parsers use.
+   */
   public void addSample(HttpSample pHttpSample) throws SAXException {
-    String uri = pHttpSample.getUri();
-    if (uri == null) {
-      buildAction
-          .getHudsonConsoleWriter()
-          .println("label cannot be empty, please ensure your jmx file specifies "
-              + "name properly for each http sample: skipping sample");
+    final int label = resolveLabel(pHttpSample.getUri());
+    if (label == NO_LABEL) {
+      skipUnlabeledSample();
       return;
     }
-    String staplerUri = PerformanceReport.asStaplerURI(uri);
+    add(label, pHttpSample.getDate().getTime(), pHttpSample.getDuration(),
+        pHttpSample.isSuccessful(), pHttpSample.hasError(), pHttpSample.getHttpCode(), pHttpSample.getSizeInKb(),
+        pHttpSample.getSummarizerSamples(), pHttpSample.getSummarizerErrors());
+  }
+
+  /**
+   * Returns the id of a label. The stapler URI of a label is only computed
+   * when it is first seen, and its {@link UriReport} only looked up for its
+   * first sample.
+   */
+  public int resolveLabel(String label) {
+    if (label == null) {
+      return NO_LABEL;
+    }
+    final Integer id = labelIds.get(label);
+    if (id != null) {
+      return id;
+    }
+    synchronized (uriReportMap) {
+      Integer known = labelIds.get(label);
+      if (known == null) {
+        final Label[] labels = Arrays.copyOf(this.labels, this.labels.length + 1);
+        labels[labels.length - 1] = new Label(label);
+        this.labels = labels;
+        known = labels.length - 1;
+        labelIds.put(label, known);
+      }
+      return known;
+    }
+  }
+
+  public void addSample(int label, long timestamp, long duration, boolean successful, boolean errorObtained,
+      String httpCode, double sizeInKb) {
+    add(label, timestamp, duration, successful, errorObtained, httpCode, sizeInKb, 0, 0);
+  }
+
+  public void addSummary(int label, long timestamp, long duration, long samples, float errors) {
+    add(label, timestamp, duration, true, false, "", 0, samples, errors);
+  }
+
+  private void add(int label, long timestamp, long duration, boolean successful, boolean errorObtained,
+      String httpCode, double sizeInKb, long summarizerSamples, float summarizerErrors) {
+    if (label == NO_LABEL) {
+      skipUnlabeledSample();
+      return;
+    }
+    final Label entry = labels[label];
+    UriReport uriReport = entry.uriReport;
+    if (uriReport == null) {
+      uriReport = getOrCreateUriReport(entry.staplerUri, entry.uri);
+      entry.uriReport = uriReport;
+    }
+    uriReport.addSample(timestamp, duration, successful, errorObtained, httpCode, sizeInKb, summarizerSamples,
+        summarizerErrors);
+    if (!dirty) {
+      dirty = true;
+    }
+  }
+
+  private void skipUnlabeledSample() {
+    // reports are parsed before they are attached to a build, so this is
+    // reported to the console of the build once parsing is done.
+    skippedSamples.incrementAndGet();
+  }
+
+  /**
+   * The amount of samples that were skipped as they have no label.
+   */
+  int getSkippedSamples() {
+    return skippedSamples.get();
+  }
+
+  /**
+   * Counts samples that were skipped while the report was parsed elsewhere.
+   */
+  void addSkippedSamples(int count) {
+    skippedSamples.addAndGet(count);
+  }
+
+  private UriReport getOrCreateUriReport(String staplerUri, String uri) {
     synchronized (uriReportMap) {
       UriReport uriReport = uriReportMap.get(staplerUri);
       if (uriReport == null) {
         uriReport = new UriReport(staplerUri, uri);
+        uriReport.setPerformanceReport(this);
+        uriReport.setAggregatesOnly(aggregatesOnly);
         uriReportMap.put(staplerUri, uriReport);
       }
-      uriReport.addHttpSample(pHttpSample);
+      return uriReport;
+    }
+  }
 
+  /**
+   * Makes the URI reports that are created from now on only aggregate the
+   * samples that are added, without keeping them. This bounds the memory of
+   * reports that grow for as long as a test runs, which need no durations of
+   * individual samples.
+   */
+  void setAggregatesOnly(boolean aggregatesOnly) {
+    synchronized (uriReportMap) {
+      this.aggregatesOnly = aggregatesOnly;
+    }
+  }
+
+  /**
+   * Adds all samples of another report to this one, as if they were added
+   * through {@link #addSample(HttpSample)} after the samples of this report.
+   * This allows a file to be parsed in parts, into partial reports.
+   */
+  public void merge(PerformanceReport other) {
+    for (Map.Entry<String, UriReport> entry : other.getUriReportMapCopy().entrySet()) {
+      getOrCreateUriReport(entry.getKey(), entry.getValue().getUri()).merge(entry.getValue());
+    }
+    dirty = true;
+  }
+
+  /**
+   * Estimates the heap used by this report and its URI reports, in bytes.
+   */
+  long estimateSize() {
+    long size = 512;
+    for (UriReport uriReport : getUriReportMapCopy().values()) {
+      size += 128 + uriReport.estimateSize();
+    }
+    return size;
+  }
+
+  private Map<String, UriReport> getUriReportMapCopy() {
+    synchronized (uriReportMap) {
+      return new LinkedHashMap<String, UriReport>(uriReportMap);
+    }
+  }
+
+  /**
+   * Derives the aggregates of this report from its URI reports, if samples
+   * were added since they were last derived. This is done by all methods that
+   * read aggregates, so calling it is optional; parsers may call it once they
+   * added all samples, so that readers find the report ready.
+   */
+  public void seal() {
+    aggregates();
+  }
+
+  /**
+   * Returns the aggregates of all samples that were added before, deriving
+   * them first if samples were added since they were last derived.
+   */
+  private Aggregates aggregates() {
+    if (!dirty) {
+      return aggregates;
+    }
+    synchronized (uriReportMap) {
+      if (!dirty) {
+        return aggregates;
+      }
+      final DurationHistogram histogram = new DurationHistogram();
+      final Map<UriReport, Integer> sizes = new IdentityHashMap<UriReport, Integer>();
+      int nbError = 0;
+      float summarizerErrors = 0;
+      long totalDuration = 0;
+      double totalSizeInKB = 0;
+      for (UriReport uriReport : uriReportMap.values()) {
+        synchronized (uriReport) {
+          uriReport.addDurationsTo(histogram);
+          sizes.put(uriReport, uriReport.size());
+          nbError += uriReport.countErrors();
+          summarizerErrors += uriReport.getSummarizerErrorSum();
+          totalDuration += uriReport.getTotalDuration();
+          totalSizeInKB += uriReport.getTotalSizeInKb();
+        }
+      }
+      final Aggregates derived = new Aggregates(histogram, nbError, summarizerErrors, totalDuration, totalSizeInKB);
+      aggregates = derived;
       // reset the lazy loaded caches.
-      durationsSortedBySize = null;
       uriReportsOrdered = null;
+
+      // samples that were added while deriving mark the report dirty again. New
+      // URI reports cannot be created meanwhile, as that takes the lock.
+      dirty = false;
+      for (UriReport uriReport : uriReportMap.values()) {
+        if (uriReport.size() != sizes.get(uriReport)) {
+          dirty = true;
+          break;
+        }
+      }
+      return derived;
     }
-    
-    if (!pHttpSample.isSuccessful()) {
-      nbError++;
-    }
-    summarizerErrors += pHttpSample.getSummarizerErrors();
-    size++;
-    totalDuration += pHttpSample.getDuration();
-    totalSizeInKB += pHttpSample.getSizeInKb();
-    max = Math.max(pHttpSample.getDuration(), max);
-    min = Math.min(pHttpSample.getDuration(), min);
   }
 
   public int compareTo(PerformanceReport jmReport) {
@@ -127,60 +356,57 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
 
   public int countErrors() {
-    return nbError;
+    return aggregates().nbError;
   }
 
   public double errorPercent() {
+    final Aggregates aggregates = aggregates();
     if (ifSummarizerParserUsed(reportFileName)) {
-      if (uriReportMap.size() == 0) return 0;
-      return summarizerErrors / uriReportMap.size();
+      final int uris;
+      synchronized (uriReportMap) {
+        uris = uriReportMap.size();
+      }
+      if (uris == 0) return 0;
+      return aggregates.summarizerErrors / uris;
     } else {
-      return size() == 0 ? 0 : ((double) countErrors()) / size() * 100;
+      return aggregates.size == 0 ? 0 : ((double) aggregates.nbError) / aggregates.size * 100;
     }
   }
 
   public long getAverage() {
-    if (size == 0) {
+    final Aggregates aggregates = aggregates();
+    if (aggregates.size == 0) {
       return 0;
     }
     
-    return totalDuration / size;
+    return aggregates.totalDuration / aggregates.size;
   }
 
   public double getAverageSizeInKb() {
-    if (size == 0) {
+    final Aggregates aggregates = aggregates();
+    if (aggregates.size == 0) {
       return 0;
     }
-    return roundTwoDecimals(totalSizeInKB / size);
+    return roundTwoDecimals(aggregates.totalSizeInKB / aggregates.size);
   }
 
-  private long getDurationAt(double percentage) {
-    if (percentage < 0 || percentage > 1) {
-      throw new IllegalArgumentException("Argument 'percentage' must be a value between 0 and 1 (inclusive)");
-    }
-
-    if (size == 0) {
-      return 0;
-    }
-    
-    synchronized (uriReportMap) {
-      if (durationsSortedBySize == null) {
-        durationsSortedBySize = new ArrayList<Long>();
-        for (UriReport currentReport : uriReportMap.values()) {
-          durationsSortedBySize.addAll(currentReport.getDurations());
-        }
-        Collections.sort(durationsSortedBySize);
-      }
-      return durationsSortedBySize.get((int) (durationsSortedBySize.size() * percentage));
-    }
+  /**
+   * Returns the duration at the provided percentage of all samples (0.5 being
+   * the median), answered from a sketch with a relative error below 1%.
+   *
+   * @param percentage
+   *          a value between 0 and 1 (inclusive).
+   */
+  public long getPercentile(double percentage) {
+    return aggregates().histogram.getValueAt(percentage);
   }
    
   public long get90Line() {
-    return getDurationAt(.9);
+    return getPercentile(.9);
   }
 
   public long getMedian() {
-    return getDurationAt(.5);
+    return getPercentile(.5);
   }
 
   public String getHttpCode() {
@@ -204,15 +430,15 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
 
   public long getMax() {
-    return max;
+    return aggregates().max;
   }
 
   public double getTotalTrafficInKb() {
-    return roundTwoDecimals(totalSizeInKB);
+    return roundTwoDecimals(aggregates().totalSizeInKB);
   }
 
   public long getMin() {
-    return min;
+    return aggregates().min;
   }
 
   public String getReportFileName() {
@@ -220,6 +446,7 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
 
   public List<UriReport> getUriListOrdered() {
+    seal();
     synchronized (uriReportMap) {
       if (uriReportsOrdered == null) {
         uriReportsOrdered = new ArrayList<UriReport>(uriReportMap.values());
@@ -242,22 +469,44 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
 
   public int size() {
-    return size;
+    return aggregates().size;
   }
 
+  /**
+   * Sets the report to compare this one with, instead of the summary of the
+   * previous build.
+   */
   public void setLastBuildReport(PerformanceReport lastBuildReport) {
-    Map<String, UriReport> lastBuildUriReportMap = lastBuildReport
-        .getUriReportMap();
-    for (Map.Entry<String, UriReport> item : uriReportMap.entrySet()) {
-      UriReport lastBuildUri = lastBuildUriReportMap.get(item.getKey());
-      if (lastBuildUri != null) {
-        item.getValue().addLastBuildUriReport(lastBuildUri);
-      }
-    }
     this.lastBuildReport = lastBuildReport;
+    lastBuildReportResolved = true;
+  }
+
+  /**
+   * Returns the summary of this report in the previous completed build: its
+   * aggregates, read from the summary file of that build, without samples.
+   * Resolved once, when the build of this report is known.
+   *
+   * @return the summary, or null if the previous build has no such report.
+   */
+  PerformanceReport getLastBuildReport() {
+    if (lastBuildReportResolved || buildAction == null) {
+      return lastBuildReport;
+    }
+    PerformanceReport summary = null;
+    final AbstractBuild<?, ?> previousBuild = buildAction.getBuild().getPreviousCompletedBuild();
+    final PerformanceBuildAction previousAction = previousBuild == null ? null
+        : previousBuild.getAction(PerformanceBuildAction.class);
+    if (previousAction != null) {
+      summary = previousAction.getSummaryReport(reportFileName);
+    }
+    // concurrent callers resolve the same summary; the last one wins.
+    lastBuildReport = summary;
+    lastBuildReportResolved = true;
+    return summary;
   }
 
   public long getAverageDiff() {
+    final PerformanceReport lastBuildReport = getLastBuildReport();
     if (lastBuildReport == null) {
       return 0;
     }
@@ -265,6 +514,7 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
 
   public long getMedianDiff() {
+    final PerformanceReport lastBuildReport = getLastBuildReport();
     if (lastBuildReport == null) {
       return 0;
     }
@@ -272,6 +522,7 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
 
   public double getErrorPercentDiff() {
+    final PerformanceReport lastBuildReport = getLastBuildReport();
     if (lastBuildReport == null) {
       return 0;
     }
@@ -283,6 +534,7 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
 
   public int getSizeDiff() {
+    final PerformanceReport lastBuildReport = getLastBuildReport();
     if (lastBuildReport == null) {
       return 0;
     }
@@ -298,6 +550,10 @@ public class PerformanceReport extends AbstractReport implements Serializable,
    * @return boolean indicating usage of summarized parser
    */
   public boolean ifSummarizerParserUsed(String filename) {
+    if (buildAction == null) {
+      // a report that is not attached to a build, such as a live report.
+      return false;
+    }
     PerformanceReportParser parser = buildAction.getParserByDisplayName("JmeterSummarizer");
     if (parser != null) {
       String fileExt = parser.glob;
@@ -315,9 +571,182 @@ public class PerformanceReport extends AbstractReport implements Serializable,
     return false;
   }
 
+  /**
+   * Writes the aggregates of this report in the format of
+   * {@link ReportCodec}. The URI reports are written separately.
+   */
+  void writeTo(DataOutput out) throws IOException {
+    final Aggregates aggregates = aggregates();
+    ReportCodec.writeString(out, reportFileName);
+    out.writeInt(aggregates.nbError);
+    out.writeFloat(aggregates.summarizerErrors);
+    out.writeInt(aggregates.size);
+    out.writeLong(aggregates.totalDuration);
+    out.writeDouble(aggregates.totalSizeInKB);
+    out.writeLong(aggregates.max);
+    out.writeLong(aggregates.min);
+    aggregates.histogram.writeTo(out);
+  }
+
+  static PerformanceReport readFrom(DataInput in) throws IOException {
+    final PerformanceReport report = new PerformanceReport();
+    report.reportFileName = ReportCodec.readString(in);
+    final int nbError = in.readInt();
+    final float summarizerErrors = in.readFloat();
+    final int size = in.readInt();
+    final long totalDuration = in.readLong();
+    final double totalSizeInKB = in.readDouble();
+    final long max = in.readLong();
+    final long min = in.readLong();
+    report.aggregates = new Aggregates(DurationHistogram.readFrom(in), nbError, summarizerErrors, size,
+        totalDuration, totalSizeInKB, max, min);
+    return report;
+  }
+
+  /**
+   * Adds a URI report that was read by {@link ReportCodec}.
+   */
+  void addUriReport(UriReport uriReport) {
+    synchronized (uriReportMap) {
+      uriReport.setPerformanceReport(this);
+      uriReportMap.put(uriReport.getStaplerUri(), uriReport);
+      uriReportsOrdered = null;
+    }
+  }
+
+  UriReport getUriReportByStaplerUri(String staplerUri) {
+    synchronized (uriReportMap) {
+      return uriReportMap.get(staplerUri);
+    }
+  }
+
+  /**
+   * Rebuilds the label dictionary and the {@link #aggregates}, and the
+   * {@link #histogram} for data serialized by earlier versions of this class.
+   */
+  private Object readResolve() {
+    labels = new Label[0];
+    labelIds = new ConcurrentHashMap<String, Integer>();
+    skippedSamples = new AtomicInteger();
+    for (UriReport uriReport : uriReportMap.values()) {
+      uriReport.setPerformanceReport(this);
+    }
+    if (histogram == null) {
+      histogram = new DurationHistogram();
+      for (UriReport uriReport : uriReportMap.values()) {
+        for (Long duration : uriReport.getDurations()) {
+          histogram.record(duration);
+        }
+      }
+    }
+    aggregates = new Aggregates(histogram, nbError, summarizerErrors, size, totalDuration, totalSizeInKB, max, min);
+    return this;
+  }
+
+  /**
+   * Writes the current aggregates as the serialized form.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    final Aggregates aggregates = aggregates();
+    histogram = aggregates.histogram;
+    nbError = aggregates.nbError;
+    summarizerErrors = aggregates.summarizerErrors;
+    size = aggregates.size;
+    totalDuration = aggregates.totalDuration;
+    totalSizeInKB = aggregates.totalSizeInKB;
+    max = aggregates.max;
+    min = aggregates.min;
+    out.defaultWriteObject();
+  }
+
   private double roundTwoDecimals(double d) {
     synchronized (twoDForm) {
       return Double.valueOf(twoDForm.format(d));
     }
   }
+
+  /**
+   * The aggregates of all samples of a report at one point in time. The
+   * histogram is not changed once the aggregates are published.
+   */
+  private static final class Aggregates {
+
+    final DurationHistogram histogram;
+
+    /**
+     * The amount of http samples that are not successful.
+     */
+    final int nbError;
+
+    /**
+     * The sum of summarizerErrors values from all samples.
+     */
+    final float summarizerErrors;
+
+    /**
+     * The amount of samples in all uriReports combined.
+     */
+    final int size;
+
+    /**
+     * The duration of all samples combined, in milliseconds.
+     */
+    final long totalDuration;
+
+    /**
+     * The size of all samples combined, in kilobytes.
+     */
+    final double totalSizeInKB;
+
+    /**
+     * The longest duration from all samples, or Long.MIN_VALUE when no samples where processed.
+     */
+    final long max;
+
+    /**
+     * The shortest duration from all samples, or Long.MAX_VALUE when no samples where processed.
+     */
+    final long min;
+
+    Aggregates() {
+      this(new DurationHistogram(), 0, 0, 0, 0);
+    }
+
+    Aggregates(DurationHistogram histogram, int nbError, float summarizerErrors, long totalDuration,
+        double totalSizeInKB) {
+      this(histogram, nbError, summarizerErrors, (int) histogram.getCount(), totalDuration, totalSizeInKB,
+          histogram.getCount() == 0 ? Long.MIN_VALUE : histogram.getMax(),
+          histogram.getCount() == 0 ? Long.MAX_VALUE : histogram.getMin());
+    }
+
+    Aggregates(DurationHistogram histogram, int nbError, float summarizerErrors, int size, long totalDuration,
+        double totalSizeInKB, long max, long min) {
+      this.histogram = histogram;
+      this.nbError = nbError;
+      this.summarizerErrors = summarizerErrors;
+      this.size = size;
+      this.totalDuration = totalDuration;
+      this.totalSizeInKB = totalSizeInKB;
+      this.max = max;
+      this.min = min;
+    }
+  }
+
+  /**
+   * An entry of the label dictionary: a label, its stapler URI and, once a
+   * sample of it was added, the report that accumulates its samples.
+   */
+  private static final class Label {
+
+    final String uri;
+
+    final String staplerUri;
+
+    volatile UriReport uriReport;
+
+    Label(String uri) {
+      this.uri = uri;
+      this.staplerUri = asStaplerURI(uri);
+    }
+  }
 }
@@ -14,7 +14,6 @@ import hudson.model.TaskListener;
 import hudson.util.ChartUtil;
 import hudson.util.ChartUtil.NumberOnlyBuildLabel;
 import hudson.util.DataSetBuilder;
-import java.io.FilenameFilter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
@@ -39,8 +38,6 @@ public class PerformanceReportMap implements ModelObject {
   private static final String PLUGIN_NAME = "performance";
   private static final String TRENDREPORT_LINK = "trendReport";
 
-  private static AbstractBuild<?, ?> currentBuild = null;
-
   /**
    * Parses the reports and build a {@link PerformanceReportMap}.
    * 
@@ -177,31 +174,14 @@ public class PerformanceReportMap implements ModelObject {
   public void doRespondingTimeGraph(StaplerRequest request,
       StaplerResponse response) throws IOException {
     String parameter = request.getParameter("performanceReportPosition");
-    AbstractBuild<?, ?> previousBuild = getBuild();
-    final Map<AbstractBuild<?, ?>, Map<String, PerformanceReport>> buildReports = new LinkedHashMap<AbstractBuild<?, ?>, Map<String, PerformanceReport>>();
-    while (previousBuild != null) {
-      final AbstractBuild<?, ?> currentBuild = previousBuild;
-      parseReports(currentBuild, TaskListener.NULL,
-          new PerformanceReportCollector() {
-
-            public void addAll(Collection<PerformanceReport> parse) {
-              for (PerformanceReport performanceReport : parse) {
-                if (buildReports.get(currentBuild) == null) {
-                  Map<String, PerformanceReport> map = new LinkedHashMap<String, PerformanceReport>();
-                  buildReports.put(currentBuild, map);
-                }
-                buildReports.get(currentBuild).put(
-                    performanceReport.getReportFileName(), performanceReport);
-              }
-            }
-          }, parameter);
-      previousBuild = previousBuild.getPreviousCompletedBuild();
-    }
     // Now we should have the data necessary to generate the graphs!
     DataSetBuilder<String, NumberOnlyBuildLabel> dataSetBuilderAverage = new DataSetBuilder<String, NumberOnlyBuildLabel>();
-    for (AbstractBuild<?, ?> currentBuild : buildReports.keySet()) {
+    for (AbstractBuild<?, ?> currentBuild : getBuilds()) {
       NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
-      PerformanceReport report = buildReports.get(currentBuild).get(parameter);
+      TrendCache.ReportMetrics report = TrendCache.get(currentBuild, parameter);
+      if (report == null) {
+        continue;
+      }
       dataSetBuilderAverage.add(report.getAverage(),
           Messages.ProjectAction_Average(), label);
     }
@@ -212,38 +192,19 @@ public class PerformanceReportMap implements ModelObject {
   public void doSummarizerGraph(StaplerRequest request, StaplerResponse response)
       throws IOException {
     String parameter = request.getParameter("performanceReportPosition");
-    AbstractBuild<?, ?> previousBuild = getBuild();
-    final Map<AbstractBuild<?, ?>, Map<String, PerformanceReport>> buildReports = new LinkedHashMap<AbstractBuild<?, ?>, Map<String, PerformanceReport>>();
 
-    while (previousBuild != null) {
-      final AbstractBuild<?, ?> currentBuild = previousBuild;
-      parseReports(currentBuild, TaskListener.NULL,
-          new PerformanceReportCollector() {
-
-            public void addAll(Collection<PerformanceReport> parse) {
-              for (PerformanceReport performanceReport : parse) {
-                if (buildReports.get(currentBuild) == null) {
-                  Map<String, PerformanceReport> map = new LinkedHashMap<String, PerformanceReport>();
-                  buildReports.put(currentBuild, map);
-                }
-                buildReports.get(currentBuild).put(
-                    performanceReport.getReportFileName(), performanceReport);
-              }
-            }
-          }, parameter);
-      previousBuild = previousBuild.getPreviousCompletedBuild();
-    }
     DataSetBuilder<NumberOnlyBuildLabel, String> dataSetBuilderSummarizer = new DataSetBuilder<NumberOnlyBuildLabel, String>();
-    for (AbstractBuild<?, ?> currentBuild : buildReports.keySet()) {
+    for (AbstractBuild<?, ?> currentBuild : getBuilds()) {
       NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
-      PerformanceReport report = buildReports.get(currentBuild).get(parameter);
+      TrendCache.ReportMetrics report = TrendCache.get(currentBuild, parameter);
+      if (report == null) {
+        continue;
+      }
 
       // Now we should have the data necessary to generate the graphs!
-      for (String key : report.getUriReportMap().keySet()) {
-        Long methodAvg = report.getUriReportMap().get(key).getAverage();
-        dataSetBuilderSummarizer.add(methodAvg, label, key);
+      for (TrendCache.UriMetrics uriReport : report.getUris()) {
+        dataSetBuilderSummarizer.add(uriReport.getAverage(), label, uriReport.getStaplerUri());
       }
-      ;
     }
     ChartUtil.generateGraph(
         request,
@@ -253,6 +214,24 @@ public class PerformanceReportMap implements ModelObject {
             Messages.ProjectAction_RespondingTime()), 400, 200);
   }
 
+  /**
+   * Returns this build and all previous completed builds with reports. Their
+   * metrics are read from the {@link TrendCache}, so that the reports of
+   * previous builds need not be loaded.
+   */
+  private List<AbstractBuild<?, ?>> getBuilds() {
+    final List<AbstractBuild<?, ?>> builds = new ArrayList<AbstractBuild<?, ?>>();
+    builds.add(getBuild());
+    AbstractBuild<?, ?> previousBuild = getBuild().getPreviousCompletedBuild();
+    while (previousBuild != null) {
+      if (previousBuild.getAction(PerformanceBuildAction.class) != null) {
+        builds.add(previousBuild);
+      }
+      previousBuild = previousBuild.getPreviousCompletedBuild();
+    }
+    return builds;
+  }
+
   private void parseReports(AbstractBuild<?, ?> build, TaskListener listener,
       PerformanceReportCollector collector, final String filename)
       throws IOException {
@@ -264,7 +243,7 @@ public class PerformanceReportMap implements ModelObject {
     File[] files = repo.listFiles(new FileFilter() {
 
       public boolean accept(File f) {
-        return !f.isDirectory() && !f.getName().endsWith(".serialized");
+        return !f.isDirectory() && !AbstractParser.isSerializedDataFile(f.getName());
       }
     });
     // this may fail, if the build itself failed, we need to recover gracefully
@@ -285,20 +264,17 @@ public class PerformanceReportMap implements ModelObject {
         PerformanceReportParser p = buildAction.getParserByDisplayName(dir
             .getName());
         if (p != null) {
-          File[] listFiles = dir.listFiles(new FilenameFilter() {
-
-            public boolean accept(File dir, String name) {
-              if (filename == null && !name.endsWith(".serialized")) {
-                return true;
-              }
-              if (name.equals(filename)) {
-                return true;
-              }
-              return false;
+          final List<File> reportFiles = new ArrayList<File>();
+          final File[] listFiles = dir.listFiles();
+          for (int i = 0; listFiles != null && i < listFiles.length; i++) {
+            // reports parsed on an agent may only have been kept as serialized data.
+            final File reportFile = AbstractParser.getReportFile(listFiles[i]);
+            if (reportFile != null && (filename == null || reportFile.getName().equals(filename))) {
+              reportFiles.add(reportFile);
             }
-          });
+          }
           try {
-            collector.addAll(p.parse(build, Arrays.asList(listFiles), listener));
+            collector.addAll(p.parse(build, reportFiles, listener));
           } catch (IOException ex) {
             listener.getLogger().println("Unable to process directory '"+ dir+"'.");
             ex.printStackTrace(listener.getLogger());
@@ -306,47 +282,6 @@ public class PerformanceReportMap implements ModelObject {
         }
       }
     }
-
-    addPreviousBuildReports();
-  }
-
-  private void addPreviousBuildReports() {
-
-    // Avoid parsing all builds.
-    if (PerformanceReportMap.currentBuild == null) {
-      PerformanceReportMap.currentBuild = getBuild();
-    } else {
-      if (PerformanceReportMap.currentBuild != getBuild()) {
-        PerformanceReportMap.currentBuild = null;
-        return;
-      }
-    }
-
-    AbstractBuild<?, ?> previousBuild = getBuild().getPreviousCompletedBuild();
-    if (previousBuild == null) {
-      return;
-    }
-
-    PerformanceBuildAction previousPerformanceAction = previousBuild
-        .getAction(PerformanceBuildAction.class);
-    if (previousPerformanceAction == null) {
-      return;
-    }
-
-    PerformanceReportMap previousPerformanceReportMap = previousPerformanceAction
-        .getPerformanceReportMap();
-    if (previousPerformanceReportMap == null) {
-      return;
-    }
-
-    for (Map.Entry<String, PerformanceReport> item : getPerformanceReportMap()
-        .entrySet()) {
-      PerformanceReport lastReport = previousPerformanceReportMap
-          .getPerformanceReportMap().get(item.getKey());
-      if (lastReport != null) {
-        item.getValue().setLastBuildReport(lastReport);
-      }
-    }
   }
 
   private interface PerformanceReportCollector {
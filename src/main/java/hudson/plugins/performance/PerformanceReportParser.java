@@ -14,7 +14,7 @@ import java.util.Collection;
 /**
  * Parses performance result files into {@link PerformanceReport}s. This object
  * is persisted with {@link PerformancePublisher} into the project
- * configuration.
+ * configuration, and sent to agents that parse reports in their workspace.
  * 
  * <p>
  * Subtypes can define additional parser-specific parameters as instance fields.
@@ -22,7 +22,10 @@ import java.util.Collection;
  * @author Kohsuke Kawaguchi
  */
 public abstract class PerformanceReportParser implements
-    Describable<PerformanceReportParser>, ExtensionPoint {
+    Describable<PerformanceReportParser>, ExtensionPoint, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
   /**
    * GLOB patterns that specify the performance report.
    */
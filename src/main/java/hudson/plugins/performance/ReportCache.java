@@ -0,0 +1,267 @@
+package hudson.plugins.performance;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.util.StreamTaskListener;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A cache of the {@link PerformanceReportMap}s of builds, shared by all
+ * projects.
+ *
+ * Entries are keyed by project and build number, and weighed by the estimated
+ * heap their reports use, samples included. The least recently used entries
+ * are evicted when the total exceeds
+ * <code>hudson.plugins.performance.ReportCache.maximumMegabytes</code>, by
+ * default a sixteenth of the maximum heap. Hits, misses and evictions are
+ * available through {@link #getStats()}.
+ *
+ * Reports are loaded in the background, by
+ * <code>hudson.plugins.performance.ReportCache.loaderThreads</code> threads,
+ * as soon as a build completed or a page asks for them. Pages wait up to
+ * <code>hudson.plugins.performance.ReportCache.waitMillis</code> for reports
+ * that are still being loaded, and otherwise show {@link PendingReportMap}.
+ *
+ * After a restart, the trend metrics of the last
+ * <code>hudson.plugins.performance.ReportCache.warmBuilds</code> builds and the
+ * reports of the last build of every project are loaded by a separate thread
+ * of low priority, so that loads for pages are not queued behind them.
+ */
+public final class ReportCache {
+
+  private static final Logger LOGGER = Logger.getLogger(ReportCache.class.getName());
+
+  static final long MAXIMUM_MEGABYTES = Long.getLong(ReportCache.class.getName() + ".maximumMegabytes",
+      Math.max(16, Runtime.getRuntime().maxMemory() / 16 / (1024 * 1024)));
+
+  static final int LOADER_THREADS = Math.max(1, Integer.getInteger(ReportCache.class.getName() + ".loaderThreads", 1));
+
+  static final long WAIT_MILLIS = Long.getLong(ReportCache.class.getName() + ".waitMillis", 1000);
+
+  static final int WARM_BUILDS = Integer.getInteger(ReportCache.class.getName() + ".warmBuilds", 30);
+
+  /**
+   * Weights are counted in kilobytes, as weights of a single entry are ints.
+   */
+  private static final Cache<String, PerformanceReportMap> CACHE = CacheBuilder.newBuilder()
+      .maximumWeight(MAXIMUM_MEGABYTES * 1024)
+      .weigher(new Weigher<String, PerformanceReportMap>() {
+        public int weigh(String key, PerformanceReportMap value) {
+          return (int) Math.min(Integer.MAX_VALUE, 1 + estimateSize(value) / 1024);
+        }
+      })
+      .removalListener(new RemovalListener<String, PerformanceReportMap>() {
+        public void onRemoval(RemovalNotification<String, PerformanceReportMap> notification) {
+          if (notification.getCause() == RemovalCause.SIZE && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Evicted the performance reports of " + notification.getKey() + "; " + getStats());
+          }
+        }
+      }).build();
+
+  private static final ExecutorService LOADER = Executors.newFixedThreadPool(LOADER_THREADS,
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Performance report loader %d").build());
+
+  private static final ExecutorService WARMER = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+      .setDaemon(true).setPriority(Thread.MIN_PRIORITY).setNameFormat("Performance report warmer %d").build());
+
+  /**
+   * The loads that are queued or running, keyed like the cache.
+   */
+  private static final ConcurrentMap<String, Future<PerformanceReportMap>> LOADING = new ConcurrentHashMap<String, Future<PerformanceReportMap>>();
+
+  private ReportCache() {
+  }
+
+  private static String keyOf(AbstractBuild<?, ?> build) {
+    return build.getParent().getFullName() + '#' + build.getNumber();
+  }
+
+  /**
+   * Estimates the heap used by the reports of a report map, in bytes.
+   */
+  static long estimateSize(PerformanceReportMap reportMap) {
+    long size = 256;
+    for (PerformanceReport report : reportMap.getPerformanceReportMap().values()) {
+      size += report.estimateSize();
+    }
+    return size;
+  }
+
+  /**
+   * Returns the report map of a build, parsing its reports when it is not
+   * cached.
+   *
+   * @return the report map, or null if the reports cannot be parsed.
+   */
+  static PerformanceReportMap get(final PerformanceBuildAction buildAction) {
+    final String key = keyOf(buildAction.getBuild());
+    final PerformanceReportMap cached = CACHE.getIfPresent(key);
+    if (cached != null && cached.getBuildAction() == buildAction) {
+      return cached;
+    }
+    if (cached != null) {
+      // parsed on behalf of another action of the same build, possibly with other parsers.
+      CACHE.invalidate(key);
+    }
+    try {
+      return CACHE.get(key, new Callable<PerformanceReportMap>() {
+        public PerformanceReportMap call() throws Exception {
+          return new PerformanceReportMap(buildAction, StreamTaskListener.fromStderr());
+        }
+      });
+    } catch (ExecutionException e) {
+      LOGGER.log(Level.SEVERE, "Error creating new PerformanceReportMap()", e.getCause());
+      return null;
+    }
+  }
+
+  /**
+   * Returns the report map of a build, loading it in the background when it
+   * is not cached. Concurrent requests for the same build share one load.
+   *
+   * @return a future of the report map, which is null if the reports cannot
+   *         be parsed.
+   */
+  static Future<PerformanceReportMap> load(final PerformanceBuildAction buildAction) {
+    final String key = keyOf(buildAction.getBuild());
+    final PerformanceReportMap cached = CACHE.getIfPresent(key);
+    if (cached != null && cached.getBuildAction() == buildAction) {
+      return Futures.immediateFuture(cached);
+    }
+    final Future<PerformanceReportMap> loading = LOADING.get(key);
+    if (loading != null) {
+      return loading;
+    }
+    final FutureTask<PerformanceReportMap> task = new FutureTask<PerformanceReportMap>(
+        new Callable<PerformanceReportMap>() {
+          public PerformanceReportMap call() {
+            final PerformanceReportMap reportMap = get(buildAction);
+            // the trend graphs read the summaries, which are derived from the reports for older builds.
+            TrendCache.get(buildAction.getBuild());
+            return reportMap;
+          }
+        }) {
+      @Override
+      protected void done() {
+        LOADING.remove(key, this);
+      }
+    };
+    final Future<PerformanceReportMap> concurrent = LOADING.putIfAbsent(key, task);
+    if (concurrent != null) {
+      return concurrent;
+    }
+    LOADER.execute(task);
+    return task;
+  }
+
+  /**
+   * Loads the trend metrics of the last {@link #WARM_BUILDS} builds of a
+   * project, and the reports of its last completed build, in the background
+   * and after the loads for pages.
+   */
+  static void warm(final AbstractProject<?, ?> project) {
+    WARMER.execute(new Runnable() {
+      public void run() {
+        int warmed = 0;
+        for (AbstractBuild<?, ?> build : project.getBuilds()) {
+          if (warmed++ >= WARM_BUILDS) {
+            break;
+          }
+          final PerformanceBuildAction action = build.getAction(PerformanceBuildAction.class);
+          if (action != null) {
+            TrendCache.get(build);
+          }
+        }
+        final AbstractBuild<?, ?> build = project.getLastCompletedBuild();
+        final PerformanceBuildAction action = build == null ? null : build.getAction(PerformanceBuildAction.class);
+        if (action != null) {
+          get(action);
+        }
+      }
+    });
+  }
+
+  static void put(PerformanceBuildAction buildAction, PerformanceReportMap reportMap) {
+    CACHE.put(keyOf(buildAction.getBuild()), reportMap);
+  }
+
+  static void invalidate(AbstractBuild<?, ?> build) {
+    CACHE.invalidate(keyOf(build));
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts of the cache since startup.
+   */
+  public static CacheStats getStats() {
+    return CACHE.stats();
+  }
+
+  /**
+   * Reloads the reports of completed builds, which may have been cached while
+   * their reports were still being published, and drops those of deleted
+   * builds.
+   */
+  @Extension
+  public static class Listener extends RunListener<AbstractBuild> {
+
+    public Listener() {
+      super(AbstractBuild.class);
+    }
+
+    @Override
+    public void onCompleted(AbstractBuild build, TaskListener listener) {
+      final AbstractBuild<?, ?> completed = build;
+      invalidate(completed);
+      final PerformanceBuildAction action = completed.getAction(PerformanceBuildAction.class);
+      if (action != null) {
+        load(action);
+      }
+    }
+
+    @Override
+    public void onDeleted(AbstractBuild build) {
+      invalidate(build);
+    }
+  }
+
+  /**
+   * Loads the reports of the last build of every project after a restart.
+   */
+  @Extension
+  public static class Loader extends ItemListener {
+
+    @Override
+    public void onLoaded() {
+      for (AbstractProject<?, ?> project : Hudson.getInstance().getAllItems(AbstractProject.class)) {
+        if (project.getPublishersList().get(PerformancePublisher.class) != null) {
+          warm(project);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,328 @@
+package hudson.plugins.performance;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Reads and writes {@link PerformanceReport}s in a compact, versioned binary
+ * format. This replaces Java serialization of the whole object graph, which is
+ * large, slow to read and breaks on class changes.
+ *
+ * The format consists of:
+ * <ul>
+ * <li>a header: the magic number {@link #MAGIC}, a format version byte and a
+ * flags byte;</li>
+ * <li>a block with the aggregates of the report;</li>
+ * <li>the amount of URI reports, and for each of them a block with its
+ * aggregates, followed by a block with its samples if {@link #WITH_SAMPLES}
+ * is set.</li>
+ * </ul>
+ * Every block is preceded by its length in bytes, so that readers can skip
+ * what they do not need, and so that later versions can append fields to a
+ * block without breaking readers of older versions. Samples are stored as
+ * columns of variable length numbers; timestamps as the delta to their
+ * predecessor. Links to the reports of previous builds are not stored.
+ */
+final class ReportCodec {
+
+  /**
+   * The first four bytes of every file: "PRF2".
+   */
+  static final int MAGIC = 0x50524632;
+
+  /**
+   * The first four bytes of a file with the summaries of several reports: "PRFS".
+   */
+  static final int SUMMARIES_MAGIC = 0x50524653;
+
+  static final int VERSION = 1;
+
+  /**
+   * Flag that indicates that the samples of every URI report are included.
+   */
+  static final int WITH_SAMPLES = 1;
+
+  private ReportCodec() {
+  }
+
+  /**
+   * Writes a report, including its samples, to a stream. The stream is not
+   * closed.
+   */
+  static void write(PerformanceReport report, OutputStream stream) throws IOException {
+    write(report, stream, true);
+  }
+
+  /**
+   * Writes a report to a stream, optionally without samples. The stream is not
+   * closed.
+   */
+  static void write(PerformanceReport report, OutputStream stream, boolean withSamples) throws IOException {
+    final DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeByte(withSamples ? WITH_SAMPLES : 0);
+
+    final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    final DataOutputStream blockOut = new DataOutputStream(block);
+    report.writeTo(blockOut);
+    writeBlock(out, block);
+
+    final UriReport[] uriReports;
+    synchronized (report.getUriReportMap()) {
+      uriReports = report.getUriReportMap().values().toArray(new UriReport[0]);
+    }
+    out.writeInt(uriReports.length);
+    for (UriReport uriReport : uriReports) {
+      uriReport.writeTo(blockOut);
+      writeBlock(out, block);
+      if (withSamples) {
+        synchronized (uriReport) {
+          uriReport.getSampleStore().writeTo(blockOut);
+        }
+        writeBlock(out, block);
+      }
+    }
+    out.flush();
+  }
+
+  private static void writeBlock(DataOutputStream out, ByteArrayOutputStream block) throws IOException {
+    out.writeInt(block.size());
+    block.writeTo(out);
+    block.reset();
+  }
+
+  /**
+   * Reads a report from a stream. The stream is not closed.
+   *
+   * @throws IOException
+   *           if the data is not in this format, of an unsupported version, or
+   *           cannot be read.
+   */
+  static PerformanceReport read(InputStream stream) throws IOException {
+    return read(new DataInputStream(stream), null, null);
+  }
+
+  /**
+   * Reads a report from a file, without its samples: these are loaded from
+   * the file when they are first needed. This keeps the memory that a report
+   * takes to its aggregates for as long as only these are looked at.
+   *
+   * @throws IOException
+   *           if the data is not in this format, of an unsupported version, or
+   *           cannot be read.
+   */
+  static PerformanceReport read(File file) throws IOException {
+    final CountingInputStream counting = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      return read(new DataInputStream(counting), counting, file);
+    } finally {
+      counting.close();
+    }
+  }
+
+  /**
+   * @param counting
+   *          the position in the file, if the samples are to be deferred
+   * @param file
+   *          the file from which the samples are loaded, or null to read them
+   *          right away
+   */
+  private static PerformanceReport read(DataInputStream in, CountingInputStream counting, File file) throws IOException {
+    final int magic = in.readInt();
+    if (magic != MAGIC) {
+      throw new IOException("Not a performance report: unexpected magic number " + Integer.toHexString(magic));
+    }
+    final int version = in.readUnsignedByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported performance report format version " + version);
+    }
+    final int flags = in.readUnsignedByte();
+
+    final PerformanceReport report = PerformanceReport.readFrom(block(in));
+    final int uriCount = in.readInt();
+    for (int i = 0; i < uriCount; i++) {
+      final UriReport uriReport = UriReport.readFrom(block(in));
+      if ((flags & WITH_SAMPLES) != 0) {
+        if (file == null) {
+          uriReport.setSampleStore(SampleStore.readFrom(block(in)));
+        } else {
+          final int length = blockLength(in);
+          uriReport.setSampleBlock(new SampleBlock(file, counting.getCount(), length));
+          ByteStreams.skipFully(in, length);
+        }
+      }
+      report.addUriReport(uriReport);
+    }
+    return report;
+  }
+
+  /**
+   * Writes the aggregates of several reports, without samples, to a stream.
+   * The stream is not closed.
+   */
+  static void writeSummaries(Collection<PerformanceReport> reports, OutputStream stream) throws IOException {
+    final DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(SUMMARIES_MAGIC);
+    out.writeByte(VERSION);
+    out.writeInt(reports.size());
+    for (PerformanceReport report : reports) {
+      write(report, out, false);
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads the summaries that were written by
+   * {@link #writeSummaries(Collection, OutputStream)}, keyed by their report
+   * file name. The stream is not closed.
+   */
+  static Map<String, PerformanceReport> readSummaries(InputStream stream) throws IOException {
+    final DataInputStream in = new DataInputStream(stream);
+    final int magic = in.readInt();
+    if (magic != SUMMARIES_MAGIC) {
+      throw new IOException("Not a performance summary: unexpected magic number " + Integer.toHexString(magic));
+    }
+    final int version = in.readUnsignedByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported performance summary format version " + version);
+    }
+    final int count = in.readInt();
+    final Map<String, PerformanceReport> result = new LinkedHashMap<String, PerformanceReport>();
+    for (int i = 0; i < count; i++) {
+      final PerformanceReport report = read(in, null, null);
+      result.put(report.getReportFileName(), report);
+    }
+    return result;
+  }
+
+  /**
+   * Reads a length-prefixed block, so that fields that are appended to a block
+   * by later versions are skipped, and fields that are missing in blocks of
+   * earlier versions can be detected through {@link DataInputStream#available()}.
+   */
+  private static DataInputStream block(DataInputStream in) throws IOException {
+    final byte[] bytes = new byte[blockLength(in)];
+    in.readFully(bytes);
+    return new DataInputStream(new ByteArrayInputStream(bytes));
+  }
+
+  private static int blockLength(DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Corrupt block length: " + length);
+    }
+    return length;
+  }
+
+  /**
+   * The location of the samples of a URI report in a file, to load them on
+   * demand.
+   */
+  static final class SampleBlock {
+
+    private final File file;
+
+    private final long offset;
+
+    private final int length;
+
+    /**
+     * The modification time of the file when the location was recorded.
+     */
+    private final long lastModified;
+
+    SampleBlock(File file, long offset, int length) {
+      this.file = file;
+      this.offset = offset;
+      this.length = length;
+      this.lastModified = file.lastModified();
+    }
+
+    /**
+     * Reads the samples.
+     *
+     * @throws IOException
+     *           if the file cannot be read, or was changed since the location
+     *           was recorded.
+     */
+    SampleStore load() throws IOException {
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        if (file.lastModified() != lastModified || raf.length() < offset + length) {
+          throw new IOException("'" + file + "' was changed since it was read.");
+        }
+        final byte[] bytes = new byte[length];
+        raf.seek(offset);
+        raf.readFully(bytes);
+        return SampleStore.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+      } finally {
+        raf.close();
+      }
+    }
+  }
+
+  static void writeString(DataOutput out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  static String readString(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * Writes a non-negative number in 7-bit groups, least significant group
+   * first. Small numbers take a single byte.
+   */
+  static void writeVarLong(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  static long readVarLong(DataInput in) throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = in.readUnsignedByte();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Corrupt variable length number");
+  }
+
+  /**
+   * Maps signed numbers to unsigned ones, so that numbers close to zero take
+   * few bytes as a variable length number.
+   */
+  static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
@@ -0,0 +1,155 @@
+package hudson.plugins.performance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The comparison of the URI reports of two builds, as used by the relative
+ * thresholds of {@link PerformancePublisher}.
+ *
+ * URI reports are matched by their stapler URI, ignoring case, through a hash
+ * join: the cost is linear in the amount of URIs of both builds. The response
+ * times of every matched URI are read once, when the comparison is built.
+ */
+final class ReportComparison {
+
+  /**
+   * The response times that are compared, by the configuration type of
+   * {@link PerformancePublisher}.
+   */
+  enum Metric {
+    AVERAGE(PerformancePublisher.ART), MEDIAN(PerformancePublisher.MRT), LINE90(PerformancePublisher.PRT);
+
+    private final String configType;
+
+    private Metric(String configType) {
+      this.configType = configType;
+    }
+
+    /**
+     * Returns the metric of a configuration type, or null if there is none.
+     */
+    static Metric of(String configType) {
+      for (Metric metric : values()) {
+        if (metric.configType.equalsIgnoreCase(configType)) {
+          return metric;
+        }
+      }
+      return null;
+    }
+  }
+
+  private final List<Entry> entries;
+
+  private ReportComparison(List<Entry> entries) {
+    this.entries = Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * Compares the URI reports of a previous build with those of the current
+   * build. Entries are in the order of the previous build; a URI that matches
+   * several URIs of the current build results in several entries.
+   *
+   * @param previous
+   *          the URI reports of the previous build, possibly null.
+   * @param current
+   *          the URI reports of the current build, possibly null.
+   */
+  static ReportComparison compare(List<UriReport> previous, List<UriReport> current) {
+    final List<Entry> entries = new ArrayList<Entry>();
+    if (previous == null || current == null) {
+      return new ReportComparison(entries);
+    }
+
+    final Map<String, List<UriReport>> currentByKey = new HashMap<String, List<UriReport>>(current.size() * 2);
+    for (UriReport uriReport : current) {
+      final String key = keyOf(uriReport);
+      List<UriReport> matches = currentByKey.get(key);
+      if (matches == null) {
+        matches = new ArrayList<UriReport>(1);
+        currentByKey.put(key, matches);
+      }
+      matches.add(uriReport);
+    }
+
+    for (UriReport previousUri : previous) {
+      final List<UriReport> matches = currentByKey.get(keyOf(previousUri));
+      if (matches == null) {
+        continue;
+      }
+      final long[] previousValues = valuesOf(previousUri);
+      for (UriReport currentUri : matches) {
+        entries.add(new Entry(previousUri.getStaplerUri(), currentUri.getStaplerUri(), previousValues,
+            valuesOf(currentUri)));
+      }
+    }
+    return new ReportComparison(entries);
+  }
+
+  private static String keyOf(UriReport uriReport) {
+    return uriReport.getStaplerUri().toLowerCase(Locale.ENGLISH);
+  }
+
+  private static long[] valuesOf(UriReport uriReport) {
+    final long[] values = new long[Metric.values().length];
+    values[Metric.AVERAGE.ordinal()] = uriReport.getAverage();
+    values[Metric.MEDIAN.ordinal()] = uriReport.getMedian();
+    values[Metric.LINE90.ordinal()] = uriReport.get90Line();
+    return values;
+  }
+
+  List<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * A URI of the previous build and the matching URI of the current build.
+   */
+  static final class Entry {
+
+    private final String previousUri;
+    private final String currentUri;
+    private final long[] previousValues;
+    private final long[] currentValues;
+
+    private Entry(String previousUri, String currentUri, long[] previousValues, long[] currentValues) {
+      this.previousUri = previousUri;
+      this.currentUri = currentUri;
+      this.previousValues = previousValues;
+      this.currentValues = currentValues;
+    }
+
+    String getPreviousUri() {
+      return previousUri;
+    }
+
+    String getCurrentUri() {
+      return currentUri;
+    }
+
+    long getPrevious(Metric metric) {
+      return previousValues[metric.ordinal()];
+    }
+
+    long getCurrent(Metric metric) {
+      return currentValues[metric.ordinal()];
+    }
+
+    long getDiff(Metric metric) {
+      return getCurrent(metric) - getPrevious(metric);
+    }
+
+    /**
+     * The difference relative to the previous build, in percent, rounded to
+     * two decimals.
+     */
+    double getDiffPercent(Metric metric) {
+      final double percent = ((double) getDiff(metric) * 100) / getPrevious(metric);
+      return Math.round(percent * 100) / 100.0;
+    }
+  }
+}
@@ -0,0 +1,215 @@
+package hudson.plugins.performance;
+
+import hudson.FilePath;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * Stores report files in the directory of a build, and reads them back.
+ *
+ * Report files are stored compressed, as configured by the system property
+ * <code>hudson.plugins.performance.ReportFiles.compression</code>:
+ * <code>gzip</code> (the default), <code>fast</code> for gzip at its fastest
+ * level, or <code>none</code>. A stored file keeps the name of the report
+ * file.
+ *
+ * Whether a file is compressed is told by its magic bytes, not by its name:
+ * files that were stored uncompressed are read as they are, and report files
+ * that were compressed in the workspace, such as <code>*.jtl.gz</code>, are
+ * archived as they are and read through the decompressor by all parsers.
+ */
+final class ReportFiles {
+
+  static final String COMPRESSION = System.getProperty(ReportFiles.class.getName() + ".compression", "gzip");
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The suffix of the files that data is written to before they replace the
+   * file they are written for, see {@link #replace(File, File)}.
+   */
+  static final String PARTIAL_FILE_SUFFIX = ".partial";
+
+  private ReportFiles() {
+  }
+
+  /**
+   * Creates a file in the directory of a target file, to write the data of the
+   * target to before it {@link #replace(File, File) replaces} the target. This
+   * way the target is never left with part of the data, such as after a crash
+   * or when the disk is full.
+   */
+  static File newPartialFile(File target) throws IOException {
+    return File.createTempFile(target.getName() + '.', PARTIAL_FILE_SUFFIX, target.getAbsoluteFile().getParentFile());
+  }
+
+  /**
+   * Renames a partial file over its target. The target is deleted first when
+   * it cannot be renamed over, as on Windows.
+   *
+   * @throws IOException
+   *           if the partial file cannot be renamed; it is deleted then.
+   */
+  static void replace(File partial, File target) throws IOException {
+    if (partial.renameTo(target)) {
+      return;
+    }
+    if ((!target.exists() || target.delete()) && partial.renameTo(target)) {
+      return;
+    }
+    partial.delete();
+    throw new IOException("Unable to rename '" + partial + "' to '" + target + "'.");
+  }
+
+  /**
+   * Copies a report file, possibly from an agent, into the directory of a
+   * build. Files that are compressed already are copied as they are.
+   */
+  static void archive(FilePath source, File target) throws IOException, InterruptedException {
+    target.getParentFile().mkdirs();
+    final InputStream in = new BufferedInputStream(source.read(), BUFFER_SIZE);
+    OutputStream out = null;
+    try {
+      in.mark(MAGIC_LENGTH);
+      final boolean compressed = readFormat(in) != Format.PLAIN;
+      in.reset();
+      out = compressed ? new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE) : openForArchive(target);
+      IOUtils.copy(in, out);
+      out.close();
+      out = null;
+    } finally {
+      IOUtils.closeQuietly(in);
+      IOUtils.closeQuietly(out);
+    }
+  }
+
+  private static OutputStream openForArchive(File target) throws IOException {
+    final OutputStream out = new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE);
+    if ("none".equalsIgnoreCase(COMPRESSION)) {
+      return out;
+    }
+    if ("fast".equalsIgnoreCase(COMPRESSION)) {
+      return new GZIPOutputStream(out, BUFFER_SIZE) {
+        {
+          def.setLevel(Deflater.BEST_SPEED);
+        }
+      };
+    }
+    return new GZIPOutputStream(out, BUFFER_SIZE);
+  }
+
+  /**
+   * The formats of report files, as told by their magic bytes.
+   */
+  private enum Format {
+    PLAIN, GZIP, ZSTD
+  }
+
+  private static final int MAGIC_LENGTH = 4;
+
+  private static Format readFormat(InputStream in) throws IOException {
+    final int[] magic = new int[MAGIC_LENGTH];
+    for (int i = 0; i < magic.length; i++) {
+      magic[i] = in.read();
+    }
+    if (magic[0] == 0x1f && magic[1] == 0x8b) {
+      return Format.GZIP;
+    }
+    if (magic[0] == 0x28 && magic[1] == 0xb5 && magic[2] == 0x2f && magic[3] == 0xfd) {
+      return Format.ZSTD;
+    }
+    return Format.PLAIN;
+  }
+
+  /**
+   * Tells if a file starts with the magic bytes of gzip or zstd.
+   */
+  static boolean isCompressed(File file) throws IOException {
+    final InputStream in = new FileInputStream(file);
+    try {
+      return readFormat(in) != Format.PLAIN;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Opens a report file for reading, decompressing it if needed.
+   *
+   * @throws IOException
+   *           if the file is compressed with zstd, for which the JDK has no
+   *           decompressor.
+   */
+  static InputStream open(File file) throws IOException {
+    final InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+    try {
+      in.mark(MAGIC_LENGTH);
+      final Format format = readFormat(in);
+      in.reset();
+      switch (format) {
+      case GZIP:
+        return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+      case ZSTD:
+        throw new IOException("File '" + file + "' is compressed with zstd, which is not supported."
+            + " Please compress report files with gzip, or not at all.");
+      default:
+        return in;
+      }
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens the lines of a report file: mapped into memory when the file is not
+   * compressed and {@link MappedLineSource#ENABLED mapping is enabled}, and
+   * streamed, through the decompressor if needed, otherwise.
+   */
+  static LineSource openLines(File file) throws IOException {
+    if (isCompressed(file)) {
+      return new StreamLineSource(open(file));
+    }
+    return openLines(file, 0, file.length());
+  }
+
+  /**
+   * Opens the lines in the byte range <code>[start, end)</code> of an
+   * uncompressed report file, mapped or streamed as for
+   * {@link #openLines(File)}.
+   */
+  static LineSource openLines(File file, long start, long end) throws IOException {
+    if (MappedLineSource.ENABLED) {
+      return new MappedLineSource(file, start, end);
+    }
+    return streamLines(file, start, end);
+  }
+
+  /**
+   * Streams the lines in the byte range <code>[start, end)</code> of an
+   * uncompressed report file, which is not locked once the source is closed.
+   */
+  static LineSource streamLines(File file, long start, long end) throws IOException {
+    final InputStream in = new FileInputStream(file);
+    try {
+      IOUtils.skipFully(in, start);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    return new StreamLineSource(new BoundedInputStream(in, Math.max(0, end - start)));
+  }
+}
@@ -0,0 +1,145 @@
+package hudson.plugins.performance;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Follows a CSV report file that is still being written, such as the JTL file
+ * of a running JMeter test, and adds the samples of its lines to a report.
+ *
+ * Every {@link #poll(FilePath)} reads only the complete lines that were
+ * appended since the previous poll, from the offset up to which the file was
+ * read. These bytes are read where the file is, possibly on an agent, and
+ * added to the streaming aggregates of the report on the master, which does
+ * not keep the samples themselves. A file that shrank, because it was
+ * replaced, is read again from its start into a new report.
+ *
+ * Lines that are not samples of the configured format, such as a header after
+ * the file was rotated, or a part of a quoted field that spans lines, are
+ * counted and skipped; the lines after them are read.
+ *
+ * At most <code>hudson.plugins.performance.ReportTail.maxReadBytes</code> are
+ * read per poll, so that a poll that falls behind catches up in steps.
+ */
+final class ReportTail {
+
+  static final int MAX_READ_BYTES = Integer.getInteger(ReportTail.class.getName() + ".maxReadBytes",
+      16 * 1024 * 1024);
+
+  private final JMeterCsvParser parser;
+
+  private final String reportFileName;
+
+  private volatile PerformanceReport report;
+
+  private long offset;
+
+  private int skippedLines;
+
+  ReportTail(JMeterCsvParser parser, String reportFileName) {
+    this.parser = parser;
+    this.reportFileName = reportFileName;
+    reset();
+  }
+
+  private void reset() {
+    final PerformanceReport fresh = new PerformanceReport();
+    fresh.setReportFileName(reportFileName);
+    fresh.setAggregatesOnly(true);
+    report = fresh;
+    offset = 0;
+  }
+
+  /**
+   * The report of the lines that were read so far. It is safe to read its
+   * aggregates while lines are being added.
+   */
+  PerformanceReport getReport() {
+    return report;
+  }
+
+  /**
+   * The amount of bytes of the file that were read so far.
+   */
+  synchronized long getOffset() {
+    return offset;
+  }
+
+  /**
+   * The amount of lines that were skipped, as they are not samples of the
+   * configured format.
+   */
+  synchronized int getSkippedLines() {
+    return skippedLines;
+  }
+
+  /**
+   * Reads the lines that were appended to the file since the previous poll.
+   *
+   * @return the amount of bytes that were read.
+   * @throws IOException
+   *           if the file cannot be read.
+   */
+  synchronized int poll(FilePath file) throws IOException, InterruptedException {
+    final byte[] appended = file.act(new ReadAppended(offset, MAX_READ_BYTES));
+    if (appended == null) {
+      reset();
+      return 0;
+    }
+    if (appended.length == 0) {
+      return 0;
+    }
+    final boolean fromStart = offset == 0;
+    skippedLines += parser.addSamples(report, new StreamLineSource(new ByteArrayInputStream(appended)), fromStart,
+        true);
+    offset += appended.length;
+    return appended.length;
+  }
+
+  /**
+   * Reads the complete lines of a file from an offset on: a line that the
+   * writer did not finish yet is left for a next read.
+   *
+   * Returns null if the file is shorter than the offset.
+   */
+  private static final class ReadAppended implements FileCallable<byte[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long offset;
+
+    private final int maxBytes;
+
+    ReadAppended(long offset, int maxBytes) {
+      this.offset = offset;
+      this.maxBytes = maxBytes;
+    }
+
+    public byte[] invoke(File file, VirtualChannel channel) throws IOException {
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        final long length = raf.length();
+        if (length < offset) {
+          return null;
+        }
+        final byte[] bytes = new byte[(int) Math.min(maxBytes, length - offset)];
+        raf.seek(offset);
+        raf.readFully(bytes);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+          end--;
+        }
+        return end == bytes.length ? bytes : Arrays.copyOf(bytes, end);
+      } finally {
+        raf.close();
+      }
+    }
+  }
+}
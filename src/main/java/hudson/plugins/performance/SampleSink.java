@@ -0,0 +1,62 @@
+package hudson.plugins.performance;
+
+/**
+ * Receives the samples of a report file while it is parsed, as primitive
+ * values, so that parsers do not need to create an {@link HttpSample} per
+ * record.
+ *
+ * Labels are resolved to an id once with {@link #resolveLabel(String)}; the
+ * id is then passed with every sample of that label.
+ *
+ * This is implemented by {@link PerformanceReport}.
+ */
+interface SampleSink {
+
+  /**
+   * The id of a missing label. Samples without a label are skipped.
+   */
+  int NO_LABEL = -1;
+
+  /**
+   * Returns the id of a label, or {@link #NO_LABEL} if the label is null.
+   */
+  int resolveLabel(String label);
+
+  /**
+   * Adds a single sample.
+   *
+   * @param label
+   *          the id of the label of the sample
+   * @param timestamp
+   *          the start of the sample, in milliseconds since the epoch
+   * @param duration
+   *          the duration of the sample, in milliseconds
+   * @param successful
+   *          whether the sample was successful
+   * @param errorObtained
+   *          whether the sample ended in an error rather than a failure
+   * @param httpCode
+   *          the response code of the sample
+   * @param sizeInKb
+   *          the size of the response, in kilobytes
+   */
+  void addSample(int label, long timestamp, long duration, boolean successful, boolean errorObtained,
+      String httpCode, double sizeInKb);
+
+  /**
+   * Adds a sample that summarizes several requests, as reported by load
+   * generators that only log summaries.
+   *
+   * @param label
+   *          the id of the label of the sample
+   * @param timestamp
+   *          the time of the summary, in milliseconds since the epoch
+   * @param duration
+   *          the average duration of the summarized requests, in milliseconds
+   * @param samples
+   *          the amount of summarized requests
+   * @param errors
+   *          the amount of summarized requests that failed
+   */
+  void addSummary(int label, long timestamp, long duration, long samples, float errors);
+}
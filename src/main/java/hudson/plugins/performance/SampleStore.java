@@ -0,0 +1,243 @@
+package hudson.plugins.performance;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A columnar store for the samples of a {@link UriReport}.
+ *
+ * Timestamps and durations are kept in growable <code>long[]</code> columns,
+ * the outcome of a sample in a single status byte. This costs 17 bytes per
+ * sample, where a boxed sample with its own {@link java.util.Date} easily takes
+ * five times as much.
+ *
+ * Instances are not thread safe; {@link UriReport} guards access.
+ */
+final class SampleStore implements Serializable {
+
+  private static final long serialVersionUID = 2934527345263734105L;
+
+  /**
+   * Status flag of a sample that was not successful.
+   */
+  static final byte FAILED = 1;
+
+  /**
+   * Status flag of a sample for which an error was obtained.
+   */
+  static final byte ERROR_OBTAINED = 2;
+
+  /**
+   * The heap used per sample, in bytes.
+   */
+  static final int BYTES_PER_SAMPLE = 17;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private transient long[] timestamps;
+
+  private transient long[] durations;
+
+  private transient byte[] status;
+
+  private int size = 0;
+
+  /**
+   * A lazy cache of all durations, ordered by value.
+   */
+  private transient long[] sortedDurations;
+
+  SampleStore() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  private void allocate(int capacity) {
+    timestamps = new long[capacity];
+    durations = new long[capacity];
+    status = new byte[capacity];
+  }
+
+  static byte statusOf(boolean successful, boolean errorObtained) {
+    byte result = 0;
+    if (!successful) {
+      result |= FAILED;
+    }
+    if (errorObtained) {
+      result |= ERROR_OBTAINED;
+    }
+    return result;
+  }
+
+  void add(long timestamp, long duration, byte sampleStatus) {
+    if (size == durations.length) {
+      final int capacity = size + (size >> 1) + 1;
+      timestamps = Arrays.copyOf(timestamps, capacity);
+      durations = Arrays.copyOf(durations, capacity);
+      status = Arrays.copyOf(status, capacity);
+    }
+    timestamps[size] = timestamp;
+    durations[size] = duration;
+    status[size] = sampleStatus;
+    size++;
+    sortedDurations = null;
+  }
+
+  /**
+   * Appends all samples of another store to this one.
+   */
+  void addAll(SampleStore other) {
+    final int required = size + other.size;
+    if (required > durations.length) {
+      timestamps = Arrays.copyOf(timestamps, required);
+      durations = Arrays.copyOf(durations, required);
+      status = Arrays.copyOf(status, required);
+    }
+    System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+    System.arraycopy(other.durations, 0, durations, size, other.size);
+    System.arraycopy(other.status, 0, status, size, other.size);
+    size = required;
+    sortedDurations = null;
+  }
+
+  int size() {
+    return size;
+  }
+
+  long getTimestamp(int index) {
+    checkIndex(index);
+    return timestamps[index];
+  }
+
+  long getDuration(int index) {
+    checkIndex(index);
+    return durations[index];
+  }
+
+  byte getStatus(int index) {
+    checkIndex(index);
+    return status[index];
+  }
+
+  boolean isFailed(int index) {
+    return (getStatus(index) & FAILED) != 0;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  /**
+   * Returns all durations, ordered by value. The returned array is cached and
+   * must not be modified.
+   */
+  long[] getSortedDurations() {
+    if (sortedDurations == null) {
+      final long[] sorted = Arrays.copyOf(durations, size);
+      Arrays.sort(sorted);
+      sortedDurations = sorted;
+    }
+    return sortedDurations;
+  }
+
+  /**
+   * Returns a read-only view of all durations in insertion order. Values are
+   * boxed on access only.
+   */
+  List<Long> durationsView() {
+    return new AbstractList<Long>() {
+      @Override
+      public Long get(int index) {
+        return getDuration(index);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Returns a read-only view of all durations, ordered by value.
+   */
+  List<Long> sortedDurationsView() {
+    final long[] sorted = getSortedDurations();
+    return new AbstractList<Long>() {
+      @Override
+      public Long get(int index) {
+        return sorted[index];
+      }
+
+      @Override
+      public int size() {
+        return sorted.length;
+      }
+    };
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    for (int i = 0; i < size; i++) {
+      out.writeLong(timestamps[i]);
+      out.writeLong(durations[i]);
+      out.writeByte(status[i]);
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    allocate(Math.max(size, INITIAL_CAPACITY));
+    for (int i = 0; i < size; i++) {
+      timestamps[i] = in.readLong();
+      durations[i] = in.readLong();
+      status[i] = in.readByte();
+    }
+  }
+
+  /**
+   * Writes the samples in the format of {@link ReportCodec}: timestamps as
+   * deltas to their predecessor, and durations, as variable length numbers,
+   * followed by the status bytes.
+   */
+  void writeTo(DataOutput out) throws IOException {
+    ReportCodec.writeVarLong(out, size);
+    long previous = 0;
+    for (int i = 0; i < size; i++) {
+      ReportCodec.writeVarLong(out, ReportCodec.zigZag(timestamps[i] - previous));
+      previous = timestamps[i];
+    }
+    for (int i = 0; i < size; i++) {
+      ReportCodec.writeVarLong(out, ReportCodec.zigZag(durations[i]));
+    }
+    out.write(status, 0, size);
+  }
+
+  static SampleStore readFrom(DataInput in) throws IOException {
+    final long count = ReportCodec.readVarLong(in);
+    if (count < 0 || count > Integer.MAX_VALUE) {
+      throw new IOException("Corrupt sample count: " + count);
+    }
+    final SampleStore store = new SampleStore();
+    store.size = (int) count;
+    store.allocate(Math.max(store.size, INITIAL_CAPACITY));
+    long previous = 0;
+    for (int i = 0; i < store.size; i++) {
+      previous += ReportCodec.unZigZag(ReportCodec.readVarLong(in));
+      store.timestamps[i] = previous;
+    }
+    for (int i = 0; i < store.size; i++) {
+      store.durations[i] = ReportCodec.unZigZag(ReportCodec.readVarLong(in));
+    }
+    in.readFully(store.status, 0, store.size);
+    return store;
+  }
+}
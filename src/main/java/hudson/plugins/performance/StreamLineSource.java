@@ -0,0 +1,104 @@
+package hudson.plugins.performance;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a stream, such as a decompressed report file, through a
+ * buffer, without decoding them.
+ *
+ * Lines are returned like {@link MappedLineSource} does: as
+ * {@link CharSequence}s that are backed by the buffer, and that are only
+ * decoded when turned into a string. The buffer grows to hold the longest
+ * line.
+ *
+ * Instances are not thread safe.
+ */
+final class StreamLineSource implements LineSource {
+
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private final InputStream in;
+
+  private byte[] buffer;
+
+  private ByteBuffer wrapped;
+
+  /**
+   * The offset in the buffer of the next line.
+   */
+  private int position;
+
+  /**
+   * The amount of bytes in the buffer.
+   */
+  private int limit;
+
+  private boolean eof;
+
+  StreamLineSource(InputStream in) {
+    this(in, BUFFER_SIZE);
+  }
+
+  StreamLineSource(InputStream in, int bufferSize) {
+    this.in = in;
+    this.buffer = new byte[Math.max(1, bufferSize)];
+    this.wrapped = ByteBuffer.wrap(buffer);
+  }
+
+  public CharSequence nextLine() throws IOException {
+    int scan = position;
+    while (true) {
+      for (int i = scan; i < limit; i++) {
+        if (buffer[i] == '\n') {
+          return line(i, i + 1);
+        }
+      }
+      if (eof) {
+        // the last line has no line break.
+        return position < limit ? line(limit, limit) : null;
+      }
+      final int scanned = limit - position;
+      fill();
+      scan = position + scanned;
+    }
+  }
+
+  /**
+   * Reads more bytes, after moving the current line to the start of the
+   * buffer, or into a larger buffer if it fills the buffer.
+   */
+  private void fill() throws IOException {
+    if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, limit - position);
+      limit -= position;
+      position = 0;
+    }
+    if (limit == buffer.length) {
+      buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+      wrapped = ByteBuffer.wrap(buffer);
+    }
+    final int read = in.read(buffer, limit, buffer.length - limit);
+    if (read < 0) {
+      eof = true;
+    } else {
+      limit += read;
+    }
+  }
+
+  private CharSequence line(int lineEnd, int next) {
+    int length = lineEnd - position;
+    if (length > 0 && buffer[lineEnd - 1] == '\r') {
+      length--;
+    }
+    final CharSequence line = new MappedLineSource.ByteLine(wrapped, position, length);
+    position = next;
+    return line;
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+}
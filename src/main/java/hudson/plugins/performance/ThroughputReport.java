@@ -1,14 +1,29 @@
 package hudson.plugins.performance;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
+ * The throughput of a {@link PerformanceReport}, in requests per second.
+ *
+ * Besides the estimate of {@link #get()}, the throughput is computed over the
+ * wall clock: the {@link TimeBuckets} of all URIs are merged into one timeline
+ * in a single pass, from which the rate per interval, the peak rate and the
+ * sustained rate of the plateau between ramp-up and ramp-down follow.
+ *
  * @author Artem Stasiuk (artem.stasuk@gmail.com)
  */
 public class ThroughputReport {
 
+    private static final double MILLISECONDS_IN_SECOND = 1000;
+
     private final PerformanceReport performanceReport;
 
+    /**
+     * The requests per interval of all URIs, merged lazily.
+     */
+    private TimeBuckets timeline;
+
     public ThroughputReport(final PerformanceReport performanceReport) {
         this.performanceReport = performanceReport;
     }
@@ -23,4 +38,95 @@ public class ThroughputReport {
         return sumThroughput;
     }
 
+    private synchronized TimeBuckets getTimeline() {
+        if (timeline == null) {
+            final TimeBuckets merged = new TimeBuckets();
+            for (UriReport uriReport : performanceReport.getUriListOrdered()) {
+                uriReport.addTimeBucketsTo(merged);
+            }
+            timeline = merged;
+        }
+        return timeline;
+    }
+
+    /**
+     * The width of the intervals of {@link #getRates()}, in milliseconds.
+     */
+    public long getIntervalWidth() {
+        return getTimeline().getWidth();
+    }
+
+    /**
+     * The start of the first interval of {@link #getRates()}, in milliseconds
+     * since the epoch.
+     */
+    public long getStart() {
+        return getTimeline().getStart(0);
+    }
+
+    /**
+     * The requests per second in consecutive intervals, from the interval of
+     * the first request up to the interval of the last one.
+     */
+    public double[] getRates() {
+        final TimeBuckets timeline = getTimeline();
+        final double seconds = timeline.getWidth() / MILLISECONDS_IN_SECOND;
+        final double[] rates = new double[timeline.size()];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = timeline.getCount(i) / seconds;
+        }
+        return rates;
+    }
+
+    /**
+     * The requests per second over the wall clock time of the whole run.
+     */
+    public double getAverage() {
+        final double[] rates = getRates();
+        if (rates.length == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (double rate : rates) {
+            sum += rate;
+        }
+        return sum / rates.length;
+    }
+
+    /**
+     * The highest rate of any interval.
+     */
+    public double getPeak() {
+        double peak = 0;
+        for (double rate : getRates()) {
+            peak = Math.max(peak, rate);
+        }
+        return peak;
+    }
+
+    /**
+     * The rate that was sustained during the plateau of the run: the median
+     * rate of the intervals from the first up to the last interval that
+     * reached at least half of the peak rate. This leaves out ramp-up and
+     * ramp-down.
+     */
+    public double getSustained() {
+        final double[] rates = getRates();
+        final double threshold = getPeak() / 2;
+        int first = 0;
+        while (first < rates.length && rates[first] < threshold) {
+            first++;
+        }
+        int last = rates.length - 1;
+        while (last >= first && rates[last] < threshold) {
+            last--;
+        }
+        if (last < first) {
+            return 0;
+        }
+        final double[] plateau = Arrays.copyOfRange(rates, first, last + 1);
+        Arrays.sort(plateau);
+        return plateau[plateau.length / 2];
+    }
+
 }
@@ -0,0 +1,357 @@
+package hudson.plugins.performance;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Aggregates of samples in consecutive time intervals of equal width: the
+ * amount of samples that started in an interval, how many of them failed, the
+ * sum, minimum and maximum of their durations, and a coarse histogram of their
+ * durations.
+ *
+ * Buckets are <code>hudson.plugins.performance.TimeBuckets.width</code>
+ * milliseconds wide (one second by default), aligned on multiples of their
+ * width since the epoch. When a run spans more than
+ * <code>hudson.plugins.performance.TimeBuckets.maxBuckets</code> buckets, the
+ * width is doubled and neighbouring buckets are combined, so memory is bounded
+ * regardless of the duration of a run or the amount of samples.
+ *
+ * The histogram of a bucket counts durations per power of two, which is
+ * enough to draw percentile bands over time.
+ *
+ * Instances are not thread safe.
+ */
+final class TimeBuckets implements Serializable {
+
+  private static final long serialVersionUID = 7317447210962307452L;
+
+  static final long WIDTH = Math.max(1, Long.getLong(TimeBuckets.class.getName() + ".width", 1000));
+
+  static final int MAX_BUCKETS = Math.max(2, Integer.getInteger(TimeBuckets.class.getName() + ".maxBuckets", 1024));
+
+  /**
+   * The amount of histogram bins per bucket. Bin <code>b</code> counts the
+   * durations <code>d</code> with <code>2^(b-1) <= d < 2^b</code>; bin 0
+   * counts durations of 0, and the last bin all durations beyond.
+   */
+  static final int BINS = 16;
+
+  private long width;
+
+  /**
+   * The index of the first bucket, counted in widths since the epoch.
+   */
+  private long first;
+
+  /**
+   * The amount of buckets in use.
+   */
+  private int size;
+
+  private long[] counts = new long[0];
+
+  private long[] errors = new long[0];
+
+  private long[] sums = new long[0];
+
+  private long[] mins = new long[0];
+
+  private long[] maxs = new long[0];
+
+  /**
+   * The histogram bins of all buckets, {@link #BINS} per bucket.
+   */
+  private long[] bins = new long[0];
+
+  TimeBuckets() {
+    this(WIDTH);
+  }
+
+  TimeBuckets(long width) {
+    this.width = width;
+  }
+
+  static int binOf(long duration) {
+    return Math.min(BINS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, duration)));
+  }
+
+  /**
+   * Records a single sample.
+   */
+  void record(long timestamp, long duration, boolean failed) {
+    final int i = slot(timestamp);
+    final long value = Math.max(0, duration);
+    if (counts[i] == 0) {
+      mins[i] = value;
+      maxs[i] = value;
+    } else {
+      mins[i] = Math.min(mins[i], value);
+      maxs[i] = Math.max(maxs[i], value);
+    }
+    counts[i]++;
+    if (failed) {
+      errors[i]++;
+    }
+    sums[i] += value;
+    bins[i * BINS + binOf(value)]++;
+  }
+
+  /**
+   * Adds all buckets of another instance to this one. Buckets of a narrower
+   * instance are combined into the buckets of this one; a bucket of a wider
+   * instance is added to the bucket in which it starts.
+   */
+  void add(TimeBuckets other) {
+    for (int j = 0; j < other.size; j++) {
+      if (other.counts[j] == 0) {
+        continue;
+      }
+      final int i = slot(other.getStart(j));
+      if (counts[i] == 0) {
+        mins[i] = other.mins[j];
+        maxs[i] = other.maxs[j];
+      } else {
+        mins[i] = Math.min(mins[i], other.mins[j]);
+        maxs[i] = Math.max(maxs[i], other.maxs[j]);
+      }
+      counts[i] += other.counts[j];
+      errors[i] += other.errors[j];
+      sums[i] += other.sums[j];
+      for (int b = 0; b < BINS; b++) {
+        bins[i * BINS + b] += other.bins[j * BINS + b];
+      }
+    }
+  }
+
+  /**
+   * Returns the position of the bucket of a point in time, after adding,
+   * combining or shifting buckets as needed.
+   */
+  private int slot(long timestamp) {
+    final long time = Math.max(0, timestamp);
+    if (size == 0) {
+      first = time / width;
+      ensureCapacity(1);
+      size = 1;
+      return 0;
+    }
+    while (Math.max(first + size - 1, time / width) - Math.min(first, time / width) >= MAX_BUCKETS) {
+      coarsen();
+    }
+    final long index = time / width;
+    if (index < first) {
+      shift((int) (first - index));
+      first = index;
+    } else if (index >= first + size) {
+      ensureCapacity((int) (index - first + 1));
+      size = (int) (index - first + 1);
+    }
+    return (int) (index - first);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= counts.length) {
+      return;
+    }
+    final int length = Math.min(MAX_BUCKETS, Math.max(capacity, counts.length * 2));
+    counts = Arrays.copyOf(counts, length);
+    errors = Arrays.copyOf(errors, length);
+    sums = Arrays.copyOf(sums, length);
+    mins = Arrays.copyOf(mins, length);
+    maxs = Arrays.copyOf(maxs, length);
+    bins = Arrays.copyOf(bins, length * BINS);
+  }
+
+  /**
+   * Moves all buckets up by some positions, to make room for earlier buckets.
+   */
+  private void shift(int positions) {
+    ensureCapacity(size + positions);
+    shift(counts, positions, 1);
+    shift(errors, positions, 1);
+    shift(sums, positions, 1);
+    shift(mins, positions, 1);
+    shift(maxs, positions, 1);
+    shift(bins, positions, BINS);
+    size += positions;
+  }
+
+  private void shift(long[] array, int positions, int stride) {
+    System.arraycopy(array, 0, array, positions * stride, size * stride);
+    Arrays.fill(array, 0, positions * stride, 0);
+  }
+
+  /**
+   * Doubles the width of the buckets, combining every two neighbouring
+   * buckets into one.
+   */
+  private void coarsen() {
+    final long newFirst = first / 2;
+    final int newSize = (int) ((first + size - 1) / 2 - newFirst + 1);
+    for (int i = 0; i < size; i++) {
+      final int j = (int) ((first + i) / 2 - newFirst);
+      if (j == i) {
+        continue;
+      }
+      if (counts[i] != 0) {
+        if (counts[j] == 0) {
+          mins[j] = mins[i];
+          maxs[j] = maxs[i];
+        } else {
+          mins[j] = Math.min(mins[j], mins[i]);
+          maxs[j] = Math.max(maxs[j], maxs[i]);
+        }
+        counts[j] += counts[i];
+        errors[j] += errors[i];
+        sums[j] += sums[i];
+        for (int b = 0; b < BINS; b++) {
+          bins[j * BINS + b] += bins[i * BINS + b];
+        }
+      }
+      counts[i] = 0;
+      errors[i] = 0;
+      sums[i] = 0;
+      mins[i] = 0;
+      maxs[i] = 0;
+      Arrays.fill(bins, i * BINS, (i + 1) * BINS, 0);
+    }
+    first = newFirst;
+    size = newSize;
+    width *= 2;
+  }
+
+  /**
+   * The width of the buckets, in milliseconds.
+   */
+  long getWidth() {
+    return width;
+  }
+
+  /**
+   * The amount of buckets, from the bucket of the earliest sample up to the
+   * bucket of the latest one. Buckets in between may be empty.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * The start of a bucket, in milliseconds since the epoch.
+   */
+  long getStart(int bucket) {
+    return (first + bucket) * width;
+  }
+
+  long getCount(int bucket) {
+    return counts[bucket];
+  }
+
+  long getErrors(int bucket) {
+    return errors[bucket];
+  }
+
+  long getSum(int bucket) {
+    return sums[bucket];
+  }
+
+  /**
+   * The average duration of the samples of a bucket, or 0 for an empty bucket.
+   */
+  long getAverage(int bucket) {
+    return counts[bucket] == 0 ? 0 : sums[bucket] / counts[bucket];
+  }
+
+  long getMin(int bucket) {
+    return mins[bucket];
+  }
+
+  long getMax(int bucket) {
+    return maxs[bucket];
+  }
+
+  /**
+   * Returns an upper bound of the duration at the provided percentage of the
+   * samples of a bucket: the upper end of the histogram bin in which it falls,
+   * but no more than the maximum.
+   *
+   * @param percentage
+   *          a value between 0 and 1 (inclusive).
+   */
+  long getPercentile(int bucket, double percentage) {
+    final long count = counts[bucket];
+    if (count == 0) {
+      return 0;
+    }
+    final long rank = Math.min(count - 1, (long) (count * percentage));
+    long seen = 0;
+    for (int b = 0; b < BINS - 1; b++) {
+      seen += bins[bucket * BINS + b];
+      if (seen > rank) {
+        return Math.min(maxs[bucket], (1L << b) - 1);
+      }
+    }
+    return maxs[bucket];
+  }
+
+  /**
+   * Estimates the heap used by these buckets, in bytes.
+   */
+  long estimateSize() {
+    return 96 + 8L * (counts.length * 5 + bins.length);
+  }
+
+  /**
+   * Writes these buckets in the format of {@link ReportCodec}.
+   */
+  void writeTo(DataOutput out) throws IOException {
+    ReportCodec.writeVarLong(out, width);
+    ReportCodec.writeVarLong(out, first);
+    ReportCodec.writeVarLong(out, size);
+    for (int i = 0; i < size; i++) {
+      ReportCodec.writeVarLong(out, counts[i]);
+      if (counts[i] == 0) {
+        continue;
+      }
+      ReportCodec.writeVarLong(out, errors[i]);
+      ReportCodec.writeVarLong(out, sums[i]);
+      ReportCodec.writeVarLong(out, mins[i]);
+      ReportCodec.writeVarLong(out, maxs[i]);
+      for (int b = 0; b < BINS; b++) {
+        ReportCodec.writeVarLong(out, bins[i * BINS + b]);
+      }
+    }
+  }
+
+  static TimeBuckets readFrom(DataInput in) throws IOException {
+    final TimeBuckets buckets = new TimeBuckets(ReportCodec.readVarLong(in));
+    buckets.first = ReportCodec.readVarLong(in);
+    final long size = ReportCodec.readVarLong(in);
+    if (buckets.width <= 0 || size > Math.max(MAX_BUCKETS, 1 << 20)) {
+      throw new IOException("Corrupt time buckets: " + size + " buckets of " + buckets.width + "ms");
+    }
+    buckets.size = (int) size;
+    buckets.counts = new long[buckets.size];
+    buckets.errors = new long[buckets.size];
+    buckets.sums = new long[buckets.size];
+    buckets.mins = new long[buckets.size];
+    buckets.maxs = new long[buckets.size];
+    buckets.bins = new long[buckets.size * BINS];
+    for (int i = 0; i < buckets.size; i++) {
+      buckets.counts[i] = ReportCodec.readVarLong(in);
+      if (buckets.counts[i] == 0) {
+        continue;
+      }
+      buckets.errors[i] = ReportCodec.readVarLong(in);
+      buckets.sums[i] = ReportCodec.readVarLong(in);
+      buckets.mins[i] = ReportCodec.readVarLong(in);
+      buckets.maxs[i] = ReportCodec.readVarLong(in);
+      for (int b = 0; b < BINS; b++) {
+        buckets.bins[i * BINS + b] = ReportCodec.readVarLong(in);
+      }
+    }
+    return buckets;
+  }
+}
@@ -0,0 +1,284 @@
+package hudson.plugins.performance;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Job;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * A cache of the per-build metrics that the trend graphs of
+ * {@link PerformanceProjectAction} show, shared by all graphs of all projects.
+ *
+ * Entries are keyed by project and build number. They are added when a build
+ * completes, loaded from the build's summary file when missing, and removed
+ * when a build is deleted. The total amount of cached metrics is bounded: every
+ * report and every URI of a report counts as one unit of weight, and at most
+ * <code>hudson.plugins.performance.TrendCache.maximumWeight</code> units are
+ * kept.
+ */
+public final class TrendCache {
+
+  private static final Logger LOGGER = Logger.getLogger(TrendCache.class.getName());
+
+  static final long MAXIMUM_WEIGHT = Long.getLong(TrendCache.class.getName() + ".maximumWeight", 200000);
+
+  private static final Cache<String, Map<String, ReportMetrics>> CACHE = CacheBuilder.newBuilder()
+      .maximumWeight(MAXIMUM_WEIGHT)
+      .weigher(new Weigher<String, Map<String, ReportMetrics>>() {
+        public int weigh(String key, Map<String, ReportMetrics> value) {
+          int weight = 1;
+          for (ReportMetrics metrics : value.values()) {
+            weight += 1 + metrics.getUris().size();
+          }
+          return weight;
+        }
+      }).build();
+
+  private TrendCache() {
+  }
+
+  private static String keyOf(Job<?, ?> project) {
+    return project.getFullName() + '#';
+  }
+
+  private static String keyOf(AbstractBuild<?, ?> build) {
+    return keyOf(build.getParent()) + build.getNumber();
+  }
+
+  /**
+   * Returns the metrics of a report of a build.
+   *
+   * @return the metrics, or null if the build has no such report.
+   */
+  static ReportMetrics get(AbstractBuild<?, ?> build, String reportFileName) {
+    return get(build).get(reportFileName);
+  }
+
+  /**
+   * Returns the metrics of all reports of a build, keyed by report file name.
+   */
+  static Map<String, ReportMetrics> get(final AbstractBuild<?, ?> build) {
+    try {
+      return CACHE.get(keyOf(build), new Callable<Map<String, ReportMetrics>>() {
+        public Map<String, ReportMetrics> call() {
+          return load(build);
+        }
+      });
+    } catch (ExecutionException e) {
+      LOGGER.log(Level.WARNING, "Unable to load the performance trend of " + build, e.getCause());
+      return Collections.emptyMap();
+    }
+  }
+
+  private static Map<String, ReportMetrics> load(AbstractBuild<?, ?> build) {
+    final PerformanceBuildAction action = build.getAction(PerformanceBuildAction.class);
+    if (action == null) {
+      return Collections.emptyMap();
+    }
+    final Map<String, ReportMetrics> result = new LinkedHashMap<String, ReportMetrics>();
+    for (Map.Entry<String, PerformanceReport> entry : action.getSummaries().entrySet()) {
+      result.put(entry.getKey(), new ReportMetrics(entry.getValue()));
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /**
+   * Replaces the metrics of a build by freshly loaded ones.
+   */
+  static void refresh(AbstractBuild<?, ?> build) {
+    CACHE.put(keyOf(build), load(build));
+  }
+
+  static void invalidate(AbstractBuild<?, ?> build) {
+    CACHE.invalidate(keyOf(build));
+  }
+
+  /**
+   * Removes the metrics of all builds of a project. They are reloaded when a
+   * graph asks for them.
+   */
+  static void invalidate(AbstractProject<?, ?> project) {
+    final String prefix = keyOf(project);
+    final Iterator<String> keys = CACHE.asMap().keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().startsWith(prefix)) {
+        keys.remove();
+      }
+    }
+  }
+
+  /**
+   * Keeps the cache up to date with completed and deleted builds.
+   */
+  @Extension
+  public static class Listener extends RunListener<AbstractBuild> {
+
+    public Listener() {
+      super(AbstractBuild.class);
+    }
+
+    @Override
+    public void onCompleted(AbstractBuild build, TaskListener listener) {
+      final AbstractBuild<?, ?> completed = build;
+      if (completed.getAction(PerformanceBuildAction.class) != null) {
+        refresh(completed);
+      }
+    }
+
+    @Override
+    public void onDeleted(AbstractBuild build) {
+      invalidate(build);
+    }
+  }
+
+  /**
+   * The metrics of a single report of a single build.
+   */
+  static final class ReportMetrics {
+
+    private final long average;
+    private final long median;
+    private final long line90;
+    private final long min;
+    private final long max;
+    private final double errorPercent;
+    private final int errors;
+    private final double totalTrafficInKb;
+    private final double averageSizeInKb;
+    private final double throughput;
+    private final double peakThroughput;
+    private final double sustainedThroughput;
+    private final List<UriMetrics> uris;
+
+    ReportMetrics(PerformanceReport report) {
+      average = report.getAverage();
+      median = report.getMedian();
+      line90 = report.get90Line();
+      min = report.getMin();
+      max = report.getMax();
+      errorPercent = report.errorPercent();
+      errors = report.countErrors();
+      totalTrafficInKb = report.getTotalTrafficInKb();
+      averageSizeInKb = report.getAverageSizeInKb();
+      final ThroughputReport throughputReport = new ThroughputReport(report);
+      throughput = throughputReport.getAverage();
+      peakThroughput = throughputReport.getPeak();
+      sustainedThroughput = throughputReport.getSustained();
+      final List<UriMetrics> list = new ArrayList<UriMetrics>();
+      for (UriReport uriReport : report.getUriListOrdered()) {
+        list.add(new UriMetrics(uriReport));
+      }
+      uris = Collections.unmodifiableList(list);
+    }
+
+    long getAverage() {
+      return average;
+    }
+
+    long getMedian() {
+      return median;
+    }
+
+    long get90Line() {
+      return line90;
+    }
+
+    long getMin() {
+      return min;
+    }
+
+    long getMax() {
+      return max;
+    }
+
+    double errorPercent() {
+      return errorPercent;
+    }
+
+    int countErrors() {
+      return errors;
+    }
+
+    double getTotalTrafficInKb() {
+      return totalTrafficInKb;
+    }
+
+    double getAverageSizeInKb() {
+      return averageSizeInKb;
+    }
+
+    /**
+     * The requests per second over the wall clock time of the run.
+     */
+    double getThroughput() {
+      return throughput;
+    }
+
+    double getPeakThroughput() {
+      return peakThroughput;
+    }
+
+    double getSustainedThroughput() {
+      return sustainedThroughput;
+    }
+
+    /**
+     * The metrics of the URIs of the report, in the order of
+     * {@link PerformanceReport#getUriListOrdered()}.
+     */
+    List<UriMetrics> getUris() {
+      return uris;
+    }
+  }
+
+  /**
+   * The metrics of a single URI of a single report.
+   */
+  static final class UriMetrics {
+
+    private final String uri;
+    private final String staplerUri;
+    private final long average;
+    private final float summarizerErrors;
+
+    UriMetrics(UriReport uriReport) {
+      uri = uriReport.getUri();
+      staplerUri = uriReport.getStaplerUri();
+      average = uriReport.getAverage();
+      summarizerErrors = uriReport.getSummarizerErrors();
+    }
+
+    String getUri() {
+      return uri;
+    }
+
+    String getStaplerUri() {
+      return staplerUri;
+    }
+
+    long getAverage() {
+      return average;
+    }
+
+    float getSummarizerErrors() {
+      return summarizerErrors;
+    }
+  }
+}
@@ -3,14 +3,17 @@ package hudson.plugins.performance;
 import hudson.model.ModelObject;
 import hudson.util.ChartUtil;
 
+import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang.StringUtils;
 import org.jfree.data.time.FixedMillisecond;
@@ -23,6 +26,9 @@ import org.kohsuke.stapler.StaplerResponse;
 /**
  * A report about a particular tested URI.
  * 
+ * Samples may be added by several threads at once; all state is guarded by
+ * the lock of the report itself.
+ * 
  * This object belongs under {@link PerformanceReport}.
  */
 public class UriReport extends AbstractReport implements Serializable, ModelObject,
@@ -30,6 +36,8 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
 
   private static final long serialVersionUID = -5269155428479638524L;
 
+  private static final Logger LOGGER = Logger.getLogger(UriReport.class.getName());
+
   public final static String END_PERFORMANCE_PARAMETER = ".endperformanceparameter";
 
   /**
@@ -37,8 +45,18 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
    * as a token in URL.
    */
   private final String staplerUri;
-  
-  private UriReport lastBuildUriReport;
+
+  /**
+   * The report this one belongs to, through which the same URI in the
+   * previous build is found.
+   */
+  private transient PerformanceReport performanceReport;
+
+  /**
+   * The same URI in the previous build, when set explicitly through
+   * {@link #addLastBuildUriReport(UriReport)}.
+   */
+  private transient volatile UriReport lastBuildUriReport;
 
   private String uri;
   
@@ -48,30 +66,49 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
   private int nbError = 0;
 
   /**
-   * A list that contains the date and duration (in milliseconds) of all individual samples.
+   * The date, duration (in milliseconds) and status of all individual samples, in insertion order.
    */
-  private final List<Sample> samples = new ArrayList<Sample>(); // retain insertion order.
+  private SampleStore store = new SampleStore();
 
   /**
-   * A lazy cache of all duration values in {@link #samples}, insertion order (same as {@link #samples} 
+   * Where the samples are to be loaded from when they are first needed, or
+   * null if they are in the {@link #store}.
    */
-  private transient List<Long> durationsIO = new ArrayList<Long>();
+  private transient ReportCodec.SampleBlock sampleBlock;
 
   /**
-   * A lazy cache of all duration values in {@link #samples}, ordered by duration. 
+   * Whether samples are only aggregated, and not kept in the {@link #store}.
    */
-  private transient List<Long> durationsSortedBySize = new ArrayList<Long>();
+  private transient boolean aggregatesOnly;
 
   /**
-   * Indicates if the collection {@link #durationsSortedBySize} is in a sorted state.
+   * Samples as serialized by earlier versions of this class. Migrated into
+   * {@link #store} when such data is read.
    */
-  private transient boolean isSorted = false;
-  
+  private List<Sample> samples;
+
+  /**
+   * A sketch of the durations of all samples, used to answer percentiles.
+   */
+  private DurationHistogram histogram = new DurationHistogram();
+
+  /**
+   * Aggregates of the samples per time interval, from which the charts over
+   * time are drawn. Null when they are still to be derived from the
+   * {@link #store}.
+   */
+  private TimeBuckets buckets = new TimeBuckets();
+
   /**
    * The duration of all samples combined, in milliseconds.
    */
   private long totalDuration = 0; // note that this is the sum of all elements in #durations, but need not be recalculated every time.
 
+  /**
+   * The size of all samples combined, in kilobytes.
+   */
+  private double totalSizeInKB = 0;
+
   /**
    * The set of (unique) HTTP status codes from all samples. 
    */
@@ -88,14 +125,16 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
   private float summarizerErrors = 0;
   
   /**
-   * The point in time of the start of the oldest sample.
+   * The point in time (in milliseconds) of the start of the oldest sample, or
+   * Long.MAX_VALUE when no samples where processed.
    */
-  private Date start = null;
+  private long startTime = Long.MAX_VALUE;
 
   /**
-   * The point in time of the end of the youngest sample.
+   * The point in time (in milliseconds) of the end of the youngest sample, or
+   * Long.MIN_VALUE when no samples where processed.
    */
-  private Date end = null;
+  private long endTime = Long.MIN_VALUE;
 
   UriReport(String staplerUri, String uri) {
     this.staplerUri = staplerUri;
@@ -103,25 +142,51 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
   }
 
   public void addHttpSample(HttpSample sample) {
-    if (!sample.isSuccessful()) {
+    addSample(sample.getDate().getTime(), sample.getDuration(), sample.isSuccessful(), sample.hasError(),
+        sample.getHttpCode(), sample.getSizeInKb(), sample.getSummarizerSamples(), sample.getSummarizerErrors());
+  }
+
+  /**
+   * Adds a single sample, as received by a {@link SampleSink}.
+   */
+  synchronized void addSample(long timestamp, long duration, boolean successful, boolean errorObtained,
+      String httpCode, double sizeInKb, long summarizerSamples, float summarizerErrors) {
+    if (!successful) {
       nbError++;
     }
-    synchronized (samples) {
-      if (samples.add(new Sample(sample.getDate(), sample.getDuration()))) {
-        isSorted = false;
-      }
+    if (!aggregatesOnly) {
+      samples().add(timestamp, duration, SampleStore.statusOf(successful, errorObtained));
     }
-    totalDuration += sample.getDuration();
-    httpCodes.add(sample.getHttpCode()); // The Set implementation will ensure that no duplicates will be saved.
-    summarizerSize += sample.getSummarizerSamples();
-    summarizerErrors += sample.getSummarizerErrors();
+    histogram.record(duration);
+    getTimeBuckets().record(timestamp, duration, !successful);
+    totalDuration += duration;
+    totalSizeInKB += sizeInKb;
+    httpCodes.add(httpCode); // The Set implementation will ensure that no duplicates will be saved.
+    summarizerSize += summarizerSamples;
+    this.summarizerErrors += summarizerErrors;
     
-    if (start == null || sample.getDate().before( start )) {
-      start = sample.getDate();
-    }
-    Date finish = new Date(sample.getDate().getTime() + sample.getDuration());
-    if (end == null || finish.after(end)) {
-        end = finish;
+    startTime = Math.min(startTime, timestamp);
+    endTime = Math.max(endTime, timestamp + duration);
+  }
+
+  /**
+   * Adds all samples of another report on the same URI to this one. The
+   * samples of <code>other</code> are considered to be younger than the
+   * samples of this report.
+   */
+  public synchronized void merge(UriReport other) {
+    synchronized (other) {
+      samples().addAll(other.samples());
+      histogram.add(other.histogram);
+      getTimeBuckets().add(other.getTimeBuckets());
+      nbError += other.nbError;
+      totalDuration += other.totalDuration;
+      totalSizeInKB += other.totalSizeInKB;
+      httpCodes.addAll(other.httpCodes);
+      summarizerSize += other.summarizerSize;
+      summarizerErrors += other.summarizerErrors;
+      startTime = Math.min(startTime, other.startTime);
+      endTime = Math.max(endTime, other.endTime);
     }
   }
 
@@ -132,7 +197,7 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
     return uriReport.getUri().compareTo(this.getUri());
   }
 
-  public int countErrors() {
+  public synchronized int countErrors() {
     return nbError;
   }
 
@@ -140,84 +205,80 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
     return ((double) countErrors()) / size() * 100;
   }
 
-  public long getAverage() {
+  public synchronized long getAverage() {
     return totalDuration / size();
   }
 
-  private long getDurationAt(double percentage) {
-    if (percentage < 0 || percentage > 1) {
-      throw new IllegalArgumentException("Argument 'percentage' must be a value between 0 and 1 (inclusive)");
-    }
-    
-    synchronized (samples) {
-      final List<Long> durations = getSortedDuration();
+  synchronized long getTotalDuration() {
+    return totalDuration;
+  }
 
-      if (durations.isEmpty()) {
-        return 0;
-      }
-      
-      return durations.get((int) (samples.size() * percentage));
-    }    
+  synchronized double getTotalSizeInKb() {
+    return totalSizeInKB;
+  }
+
+  /**
+   * The sum of the summarizer errors of all samples.
+   */
+  synchronized float getSummarizerErrorSum() {
+    return summarizerErrors;
+  }
+
+  /**
+   * Adds the aggregates per time interval of this report to others.
+   */
+  synchronized void addTimeBucketsTo(TimeBuckets target) {
+    target.add(getTimeBuckets());
+  }
+
+  /**
+   * Records the durations of all samples of this report in another histogram.
+   */
+  synchronized void addDurationsTo(DurationHistogram target) {
+    target.add(histogram);
+  }
+
+  /**
+   * Returns the duration at the provided percentage of all samples (0.5 being
+   * the median), answered from a sketch with a relative error below 1%.
+   *
+   * @param percentage
+   *          a value between 0 and 1 (inclusive).
+   */
+  public synchronized long getPercentile(double percentage) {
+    return histogram.getValueAt(percentage);
   }
   
   public long get90Line() {
-    return getDurationAt(0.9);
+    return getPercentile(0.9);
   }
   
-  public String getHttpCode() {
+  public synchronized String getHttpCode() {
     return StringUtils.join(httpCodes, ',');
   }
 
   public long getMedian() {
-    return getDurationAt(0.5);
+    return getPercentile(0.5);
   }
 
   public String getDisplayName() {
     return getUri();
   }
 
-  protected List<Long> getSortedDuration() {
-    synchronized (samples) {
-      if (!isSorted || durationsSortedBySize == null || durationsSortedBySize.size() != samples.size()) {
-        
-        durationsSortedBySize = new ArrayList<Long>(samples.size());
-        for (Sample sample : samples) {
-          durationsSortedBySize.add(sample.duration);
-        }
-        Collections.sort(durationsSortedBySize);
-        isSorted = true;
-      }
-
-      return durationsSortedBySize;
-    }
+  protected synchronized List<Long> getSortedDuration() {
+    return samples().sortedDurationsView();
   }
   
-  public List<Long> getDurations() {
-    synchronized (samples) {
-      if (durationsIO == null || durationsIO.size() != samples.size()) {        
-        durationsIO = new ArrayList<Long>(samples.size());
-        for (Sample sample : samples) {
-          durationsIO.add(sample.duration);
-        }
-      }
-      return durationsIO;
-    }
+  public synchronized List<Long> getDurations() {
+    return samples().durationsView();
   }
 
-  public long getMax() {
-    final List<Long> durations = getSortedDuration();
-    if (durations.isEmpty()) {
-      return 0;
-    }
-    return durations.get(durations.size()-1);
+  public synchronized long getMax() {
+    return histogram.getMax();
   }
 
-  public long getMin() {
-    final List<Long> durations = getSortedDuration();
-    if (durations.isEmpty()) {
-      return 0;
-    }
-    return durations.get(0);
+  public synchronized long getMin() {
+    return histogram.getMin();
   }
 
   public String getStaplerUri() {
@@ -232,17 +293,52 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
     return countErrors() != 0;
   }
 
-  public int size() {
-    synchronized (samples) {
-      return samples.size();
-    }
+  /**
+   * The amount of samples. This is known from the aggregates, also when the
+   * samples themselves were not loaded.
+   */
+  public synchronized int size() {
+    return (int) histogram.getCount();
   }
 
   public void addLastBuildUriReport( UriReport lastBuildUriReport ) {
       this.lastBuildUriReport = lastBuildUriReport;
   }
+
+  public PerformanceReport getPerformanceReport() {
+      return performanceReport;
+  }
+
+  void setPerformanceReport(PerformanceReport performanceReport) {
+      this.performanceReport = performanceReport;
+  }
+
+  /**
+   * Sets whether samples that are added are only aggregated. The durations
+   * and samples of such a report are those that were added before.
+   */
+  synchronized void setAggregatesOnly(boolean aggregatesOnly) {
+    this.aggregatesOnly = aggregatesOnly;
+  }
+
+  /**
+   * Returns the same URI in the summary of the previous build, which holds
+   * its aggregates but no samples.
+   *
+   * @return the URI report, or null if the previous build did not request
+   *         this URI.
+   */
+  UriReport getLastBuildUriReport() {
+      final UriReport explicit = lastBuildUriReport;
+      if ( explicit != null ) {
+          return explicit;
+      }
+      final PerformanceReport lastBuildReport = performanceReport == null ? null : performanceReport.getLastBuildReport();
+      return lastBuildReport == null ? null : lastBuildReport.getUriReportByStaplerUri(staplerUri);
+  }
   
   public long getAverageDiff() {
+      final UriReport lastBuildUriReport = getLastBuildUriReport();
       if ( lastBuildUriReport == null ) {
           return 0;
       }
@@ -250,6 +346,7 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
   }
   
   public long getMedianDiff() {
+      final UriReport lastBuildUriReport = getLastBuildUriReport();
       if ( lastBuildUriReport == null ) {
           return 0;
       }
@@ -257,6 +354,7 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
   }
   
   public double getErrorPercentDiff() {
+      final UriReport lastBuildUriReport = getLastBuildUriReport();
       if ( lastBuildUriReport == null ) {
           return 0;
       }
@@ -264,6 +362,7 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
   }
   
   public String getLastBuildHttpCodeIfChanged() {
+      final UriReport lastBuildUriReport = getLastBuildUriReport();
       if ( lastBuildUriReport == null ) {
           return "";
       }
@@ -276,21 +375,29 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
   }
   
   public int getSizeDiff() {
+      final UriReport lastBuildUriReport = getLastBuildUriReport();
       if ( lastBuildUriReport == null ) {
           return 0;
       }
       return size() - lastBuildUriReport.size();
   }
 
-  public float getSummarizerErrors() {    
+  public synchronized float getSummarizerErrors() {    
     return summarizerErrors/summarizerSize*100;     
   }
 
+  /**
+   * Draws the average duration per time interval of {@link TimeBuckets}, so
+   * the cost does not depend on the amount of samples.
+   */
   public void doSummarizerTrendGraph(StaplerRequest request,StaplerResponse response) throws IOException {    
     TimeSeries responseTimes = new TimeSeries("Response Time", FixedMillisecond.class);
-    synchronized (samples) {
-      for (Sample sample : samples) {
-        responseTimes.addOrUpdate(new FixedMillisecond(sample.date),sample.duration);
+    synchronized (this) {
+      final TimeBuckets buckets = getTimeBuckets();
+      for (int i = 0; i < buckets.size(); i++) {
+        if (buckets.getCount(i) > 0) {
+          responseTimes.add(new FixedMillisecond(buckets.getStart(i)), buckets.getAverage(i));
+        }
       }
     }
 
@@ -304,14 +411,159 @@ public class UriReport extends AbstractReport implements Serializable, ModelObje
                         PerformanceProjectAction.createSummarizerTrend(dataset, uri),400, 200);
   }
 
-  public Date getStart() {
-    return start;
+  public synchronized Date getStart() {
+    return size() == 0 ? null : new Date(startTime);
   }
   
-  public Date getEnd() {
-    return end;
+  public synchronized Date getEnd() {
+    return size() == 0 ? null : new Date(endTime);
   }
-  
+
+  /**
+   * Writes the aggregates of this report in the format of {@link ReportCodec}.
+   * The samples are written separately.
+   */
+  synchronized void writeTo(DataOutput out) throws IOException {
+    out.writeUTF(staplerUri);
+    ReportCodec.writeString(out, uri);
+    out.writeInt(nbError);
+    out.writeLong(totalDuration);
+    out.writeInt(httpCodes.size());
+    for (String httpCode : httpCodes) {
+      ReportCodec.writeString(out, httpCode);
+    }
+    out.writeLong(summarizerSize);
+    out.writeFloat(summarizerErrors);
+    out.writeLong(startTime);
+    out.writeLong(endTime);
+    histogram.writeTo(out);
+    out.writeDouble(totalSizeInKB);
+    getTimeBuckets().writeTo(out);
+  }
+
+  static UriReport readFrom(DataInputStream in) throws IOException {
+    final UriReport report = new UriReport(in.readUTF(), ReportCodec.readString(in));
+    report.nbError = in.readInt();
+    report.totalDuration = in.readLong();
+    final int httpCodes = in.readInt();
+    for (int i = 0; i < httpCodes; i++) {
+      report.httpCodes.add(ReportCodec.readString(in));
+    }
+    report.summarizerSize = in.readLong();
+    report.summarizerErrors = in.readFloat();
+    report.startTime = in.readLong();
+    report.endTime = in.readLong();
+    report.histogram = DurationHistogram.readFrom(in);
+    if (in.available() > 0) {
+      report.totalSizeInKB = in.readDouble();
+    }
+    report.buckets = in.available() > 0 ? TimeBuckets.readFrom(in) : null;
+    return report;
+  }
+
+  synchronized SampleStore getSampleStore() {
+    return samples();
+  }
+
+  synchronized void setSampleStore(SampleStore store) {
+    this.store = store;
+    this.sampleBlock = null;
+  }
+
+  /**
+   * Defers loading the samples of this report until they are first needed.
+   */
+  synchronized void setSampleBlock(ReportCodec.SampleBlock sampleBlock) {
+    this.store = null;
+    this.sampleBlock = sampleBlock;
+  }
+
+  /**
+   * Whether the samples of this report are in memory.
+   */
+  synchronized boolean isSamplesLoaded() {
+    return sampleBlock == null;
+  }
+
+  /**
+   * Estimates the heap used by this report, in bytes. Samples that are not
+   * loaded yet are accounted as if they were, as a view may load them at any
+   * time.
+   */
+  synchronized long estimateSize() {
+    long size = 256 + 2L * (uri.length() + staplerUri.length()) + 64L * httpCodes.size();
+    size += histogram.estimateSize();
+    if (buckets != null) {
+      size += buckets.estimateSize();
+    }
+    return size + histogram.getCount() * SampleStore.BYTES_PER_SAMPLE;
+  }
+
+  /**
+   * Returns the samples, loading them first if they were deferred. Samples
+   * that cannot be loaded any more are logged and left out.
+   */
+  private synchronized SampleStore samples() {
+    if (sampleBlock != null) {
+      try {
+        store = sampleBlock.load();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Unable to load the samples of '" + uri + "'.", e);
+        store = new SampleStore();
+      }
+      sampleBlock = null;
+    }
+    return store;
+  }
+
+  /**
+   * Returns the aggregates of the samples per time interval, deriving them
+   * from the samples for data that was stored without them.
+   */
+  synchronized TimeBuckets getTimeBuckets() {
+    if (buckets == null) {
+      buckets = new TimeBuckets();
+      final SampleStore samples = samples();
+      for (int i = 0; i < samples.size(); i++) {
+        buckets.record(samples.getTimestamp(i), samples.getDuration(i), samples.isFailed(i));
+      }
+    }
+    return buckets;
+  }
+
+  /**
+   * Migrates data serialized by earlier versions of this class: the sample
+   * list into the columnar {@link #store}, and the durations into the
+   * {@link #histogram}.
+   */
+  private Object readResolve() {
+    if (store == null) {
+      store = new SampleStore();
+      startTime = Long.MAX_VALUE;
+      endTime = Long.MIN_VALUE;
+      if (samples != null) {
+        for (Sample sample : samples) {
+          final long timestamp = sample.date == null ? 0 : sample.date.getTime();
+          store.add(timestamp, sample.duration, (byte) 0);
+          startTime = Math.min(startTime, timestamp);
+          endTime = Math.max(endTime, timestamp + sample.duration);
+        }
+      }
+    }
+    samples = null;
+    if (histogram == null) {
+      histogram = new DurationHistogram();
+      for (int i = 0; i < store.size(); i++) {
+        histogram.record(store.getDuration(i));
+      }
+    }
+    return this;
+  }
+
+  /**
+   * A single sample, as stored by earlier versions of this class. Retained to
+   * be able to read such data.
+   */
   public static class Sample implements Serializable, Comparable<Sample> {
     
     private static final long serialVersionUID = 4458431861223813407L;
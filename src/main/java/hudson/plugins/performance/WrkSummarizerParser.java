@@ -3,7 +3,6 @@ package hudson.plugins.performance;
 import hudson.Extension;
 
 import java.io.File;
-import java.util.Date;
 import java.util.Scanner;
 
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -19,6 +18,8 @@ import org.kohsuke.stapler.DataBoundConstructor;
  */
 public class WrkSummarizerParser extends AbstractParser {
 
+  private static final long serialVersionUID = 1L;
+
   private enum LineType {
     RUNNING, 
     THREAD_CONN_COUNT, 
@@ -75,15 +76,18 @@ public class WrkSummarizerParser extends AbstractParser {
     final PerformanceReport r = new PerformanceReport();
     r.setReportFileName(reportFile.getName());
     
-    Scanner s = null;
+    final LineSource s = openReportLines(reportFile);
     try {
-      s = new Scanner(reportFile);
-      HttpSample sample = new HttpSample();
+      String label = null;
+      long duration = 0;
+      long samples = 0;
+      float errors = 0;
 
-      while (s.hasNextLine()) {
+      CharSequence next;
+      while ((next = s.nextLine()) != null) {
         Scanner scanner = null;
         try {
-          String line = s.nextLine();
+          String line = next.toString();
           scanner = new Scanner(line.toLowerCase().replaceAll(
               "(\\d)s|ms|%|mb|kb(\\b)", "$1$2"));
 
@@ -95,21 +99,13 @@ public class WrkSummarizerParser extends AbstractParser {
             // extract URI
             scanner.next();
             scanner.next();
-            String uri = scanner.next();
-
-            sample.setUri(uri);
+            label = scanner.next();
             break;
           case LATENCY_DIST:
             Scanner latencyScanner = new Scanner(line.toLowerCase());
             latencyScanner.next(); // header (skip)
-            long latencyAvg = getTime(latencyScanner.next(),
-                TimeUnit.MILLISECOND);
-            latencyScanner.next(); // stdDev (skipping)
-            long latencyMax = getTime(latencyScanner.next(),
+            duration = getTime(latencyScanner.next(),
                 TimeUnit.MILLISECOND);
-
-            sample.setDuration(latencyAvg);
-            sample.setSummarizerMax(latencyMax);
             break;
           case REQ_SEC_DIST:
             // float reqSecAvg = Float.parseFloat(secondToken);
@@ -126,15 +122,13 @@ public class WrkSummarizerParser extends AbstractParser {
             // long totalTime = getTime(summaryScanner.next(), logger,
             // TimeUnit.SECOND);
 
-            sample.setSummarizerSamples(totalReq);
+            samples = totalReq;
             summaryScanner.close();
             break;
           case ERROR_COUNT:
             scanner.next();
             scanner.next();
-            int numErrors = scanner.nextInt();
-
-            sample.setSummarizerErrors(numErrors);
+            errors = scanner.nextInt();
             break;
           case REQ_SEC:
           case TRANSFER_SEC:
@@ -154,12 +148,9 @@ public class WrkSummarizerParser extends AbstractParser {
         }
       }
 
-      sample.setSuccessful(true);
-      sample.setDate(new Date());
-      r.addSample(sample);
+      r.addSummary(r.resolveLabel(label), System.currentTimeMillis(), duration, samples, errors);
     } finally {
-      if (s != null)
-        s.close();
+      s.close();
     }
 
     return r;
@@ -0,0 +1,178 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.FilePath;
+import hudson.util.StreamTaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies the multi-file behavior of
+ * {@link AbstractParser#parse(hudson.model.AbstractBuild, Collection, hudson.model.TaskListener)},
+ * and parsing report files where they are.
+ */
+public class AbstractParserTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * A parser that fails on files named 'bad', and that parses other files
+   * slower the earlier they are in line.
+   */
+  private static class NameParser extends AbstractParser {
+
+    NameParser() {
+      super("**/*");
+    }
+
+    @Override
+    public String getDefaultGlobPattern() {
+      return "**/*";
+    }
+
+    @Override
+    PerformanceReport parse(File reportFile) throws Exception {
+      if (reportFile.getName().startsWith("bad")) {
+        throw new IllegalStateException("Unparseable: " + reportFile);
+      }
+      Thread.sleep(100 - 10 * Integer.parseInt(reportFile.getName().substring(4)));
+      final PerformanceReport report = new PerformanceReport();
+      report.setReportFileName(reportFile.getName());
+      return report;
+    }
+  }
+
+  @Test
+  public void testParseKeepsOrderAndIsolatesFailures() throws Exception {
+    // Setup fixture.
+    final List<File> files = new ArrayList<File>();
+    for (int i = 0; i < 8; i++) {
+      files.add(folder.newFile((i == 3 ? "bad-" : "file") + i));
+    }
+    final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    // Execute system under test.
+    final Collection<PerformanceReport> result = new NameParser().parse(null, files, new StreamTaskListener(log));
+
+    // Verify results.
+    assertEquals(7, result.size());
+    final Iterator<PerformanceReport> iterator = result.iterator();
+    for (int i = 0; i < 8; i++) {
+      if (i != 3) {
+        assertEquals("file" + i, iterator.next().getReportFileName());
+      }
+    }
+    assertTrue(log.toString().contains("Failed to parse file"));
+  }
+
+  @Test
+  public void testParseRemotelyReturnsAggregatesWithoutSamples() throws Exception {
+    // Setup fixture.
+    final JMeterParser parser = new JMeterParser(null);
+    final File reportFile = new File(getClass().getResource("/JMeterResults.jtl").toURI());
+    final PerformanceReport parsed = parser.parse(reportFile);
+    parsed.seal();
+
+    // Execute system under test.
+    final PerformanceReport result = parser.parseRemotely(new FilePath(reportFile));
+
+    // Verify results.
+    assertEquals(parsed.size(), result.size());
+    assertEquals(parsed.getAverage(), result.getAverage());
+    assertEquals(parsed.get90Line(), result.get90Line());
+    assertEquals(parsed.getUriListOrdered().size(), result.getUriListOrdered().size());
+    for (UriReport uriReport : result.getUriListOrdered()) {
+      assertEquals(0, uriReport.getSampleStore().size());
+    }
+  }
+
+  @Test
+  public void testGetReportFileOfSerializedDataWithoutReportFile() throws Exception {
+    // Setup fixture.
+    final File archived = folder.newFile("archived.jtl");
+    final File archivedData = folder.newFile("archived.jtl" + AbstractParser.SERIALIZED_DATA_FILE_SUFFIX);
+    final File dataOnly = folder.newFile("agent.jtl" + AbstractParser.SERIALIZED_DATA_FILE_SUFFIX);
+    final File legacy = folder.newFile("old.jtl" + AbstractParser.LEGACY_SERIALIZED_DATA_FILE_SUFFIX);
+
+    // Execute system under test & verify results.
+    assertEquals(archived, AbstractParser.getReportFile(archived));
+    assertNull(AbstractParser.getReportFile(archivedData));
+    assertEquals(new File(folder.getRoot(), "agent.jtl"), AbstractParser.getReportFile(dataOnly));
+    assertNull(AbstractParser.getReportFile(legacy));
+  }
+
+  @Test
+  public void testParseCompressedArchive() throws Exception {
+    // Setup fixture.
+    final File source = new File(getClass().getResource("/JMeterResults.jtl").toURI());
+    final File archived = new File(folder.newFolder("JMeter"), source.getName());
+    ReportFiles.archive(new FilePath(source), archived);
+
+    // Execute system under test.
+    final Collection<PerformanceReport> result = new JMeterParser(null).parse(null, Collections.singletonList(archived),
+        new StreamTaskListener(new ByteArrayOutputStream()));
+
+    // Verify results.
+    assertEquals(1, result.size());
+    final PerformanceReport report = result.iterator().next();
+    assertEquals(source.getName(), report.getReportFileName());
+    assertEquals(8, report.size());
+  }
+
+  @Test
+  public void testParseRemotelyAndArchiveKeepsSamples() throws Exception {
+    // Setup fixture.
+    final JMeterParser parser = new JMeterParser(null);
+    final File source = new File(getClass().getResource("/JMeterResults.jtl").toURI());
+    final File localReport = new File(folder.newFolder("JMeter"), source.getName());
+
+    // Execute system under test.
+    parser.parseRemotely(new FilePath(source), localReport, true);
+    final Collection<PerformanceReport> result = parser.parse(null, Collections.singletonList(localReport),
+        new StreamTaskListener(new ByteArrayOutputStream()));
+
+    // Verify results.
+    assertEquals(1, result.size());
+    final PerformanceReport report = result.iterator().next();
+    assertEquals(8, report.size());
+    for (UriReport uriReport : report.getUriListOrdered()) {
+      assertFalse(uriReport.getDurations().isEmpty());
+    }
+  }
+
+  @Test
+  public void testParseRemotelyWithoutArchiveKeepsAggregates() throws Exception {
+    // Setup fixture.
+    final JMeterParser parser = new JMeterParser(null);
+    final File source = new File(getClass().getResource("/JMeterResults.jtl").toURI());
+    final File localReport = new File(folder.newFolder("JMeter"), source.getName());
+
+    // Execute system under test.
+    final PerformanceReport remote = parser.parseRemotely(new FilePath(source), localReport, false);
+    final Collection<PerformanceReport> result = parser.parse(null,
+        Collections.singletonList(AbstractParser.getReportFile(
+            new File(localReport.getPath() + AbstractParser.SERIALIZED_DATA_FILE_SUFFIX))),
+        new StreamTaskListener(new ByteArrayOutputStream()));
+
+    // Verify results.
+    assertFalse(localReport.exists());
+    assertEquals(1, result.size());
+    assertEquals(remote.getAverage(), result.iterator().next().getAverage());
+    assertEquals(8, result.iterator().next().size());
+  }
+}
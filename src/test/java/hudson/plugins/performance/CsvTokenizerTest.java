@@ -0,0 +1,53 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CsvTokenizerTest {
+
+  @Test
+  public void testOnlyWantedColumns() {
+    final CsvTokenizer tokenizer = new CsvTokenizer(',', 8, 0, 3);
+    assertTrue(tokenizer.tokenize("1393227741256,1425,GET /login,200,OK,Thread Group 1-1,text,true,3478,1016"));
+    assertEquals(3478, tokenizer.getLong(0));
+    assertEquals(1393227741256L, tokenizer.getLong(1));
+    assertEquals("200", tokenizer.getString(2));
+  }
+
+  @Test
+  public void testQuotedDelimiter() {
+    final CsvTokenizer tokenizer = new CsvTokenizer(',', 1, 2, 3);
+    assertTrue(tokenizer.tokenize("1,\"GET /a, \"\"b\"\"\",true,-5"));
+    assertEquals("GET /a, \"b\"", tokenizer.getString(0));
+    assertEquals("\"GET /a, \"\"b\"\"\"", tokenizer.getRawString(0));
+    assertTrue(tokenizer.getBoolean(1));
+    assertEquals(-5, tokenizer.getLong(2));
+  }
+
+  @Test
+  public void testOtherDelimiter() {
+    final CsvTokenizer tokenizer = new CsvTokenizer(CsvTokenizer.delimiterOf("\\t"), 1, 2);
+    assertTrue(tokenizer.tokenize("a,b\tTRUE\tfalse"));
+    assertTrue(tokenizer.getBoolean(0));
+    assertFalse(tokenizer.getBoolean(1));
+    assertEquals(';', CsvTokenizer.delimiterOf(";"));
+  }
+
+  @Test
+  public void testMissingColumns() {
+    final CsvTokenizer tokenizer = new CsvTokenizer(',', 4);
+    assertFalse(tokenizer.tokenize("1,2,3"));
+    assertTrue(tokenizer.tokenize("1,2,3,4,"));
+    assertEquals("", tokenizer.getString(0));
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testNotANumber() {
+    final CsvTokenizer tokenizer = new CsvTokenizer(',', 0);
+    tokenizer.tokenize("12a,b");
+    tokenizer.getLong(0);
+  }
+}
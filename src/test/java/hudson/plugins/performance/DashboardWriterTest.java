@@ -0,0 +1,63 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class DashboardWriterTest {
+
+  private static UriReport uriReport(String staplerUri, long duration) {
+    final UriReport uriReport = new UriReport(staplerUri, staplerUri);
+    uriReport.addSample(0, duration, true, false, "200", 0, 0, 0);
+    return uriReport;
+  }
+
+  private static Document parse(File file) throws Exception {
+    return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+  }
+
+  @Test
+  public void testAbsoluteDashboardEscapesUris() throws Exception {
+    final File file = File.createTempFile("dashBoard_", ".xml");
+    file.deleteOnExit();
+    final DashboardWriter dashboard = new DashboardWriter(file);
+    dashboard.writeAbsoluteDefinition(10, 20, 5.5);
+    dashboard.writeMetrics(Arrays.asList(uriReport("a<b&\"c\"", 100), uriReport("2nd page", 200)));
+    dashboard.close();
+
+    final Document document = parse(file);
+    assertEquals("5.5", document.getElementsByTagName("calculated").item(0).getTextContent());
+    final Element average = (Element) document.getElementsByTagName("average").item(0);
+    final Element first = (Element) average.getElementsByTagName("uri").item(0);
+    assertEquals("a<b&\"c\"", first.getAttribute("name"));
+    assertEquals("100", first.getElementsByTagName("currentBuildAvg").item(0).getTextContent());
+    final Element percentile = (Element) document.getElementsByTagName("percentile").item(0);
+    assertEquals(2, percentile.getElementsByTagName("uri").getLength());
+  }
+
+  @Test
+  public void testRelativeDashboard() throws Exception {
+    final File file = File.createTempFile("dashBoard_", ".xml");
+    file.deleteOnExit();
+    final DashboardWriter dashboard = new DashboardWriter(file);
+    dashboard.writeRelativeDefinition("previous", 1, 2, 3, 4);
+    dashboard.writeMetrics(ReportComparison.compare(Arrays.asList(uriReport("home", 100)),
+        Arrays.asList(uriReport("home", 150))));
+    dashboard.close();
+
+    final Document document = parse(file);
+    assertEquals("previous", document.getElementsByTagName("buildNum").item(0).getTextContent());
+    final Element median = (Element) document.getElementsByTagName("median").item(0);
+    final Element home = (Element) median.getElementsByTagName("uri").item(0);
+    assertEquals("home", home.getAttribute("name"));
+    assertEquals("50", home.getElementsByTagName("relativeDiff").item(0).getTextContent());
+    assertEquals("50.0", home.getElementsByTagName("relativeDiffPercent").item(0).getTextContent());
+  }
+}
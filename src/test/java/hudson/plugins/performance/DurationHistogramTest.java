@@ -0,0 +1,84 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DurationHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    final DurationHistogram histogram = new DurationHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMin());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getValueAt(0.5));
+  }
+
+  /**
+   * Small values are counted exactly, and ranked like an index into the sorted values.
+   */
+  @Test
+  public void testSmallValuesAreExact() {
+    final DurationHistogram histogram = new DurationHistogram();
+    for (long value = 1; value <= 100; value++) {
+      histogram.record(value);
+    }
+    assertEquals(51, histogram.getValueAt(0.5));
+    assertEquals(91, histogram.getValueAt(0.9));
+    assertEquals(100, histogram.getValueAt(1));
+    assertEquals(1, histogram.getMin());
+    assertEquals(100, histogram.getMax());
+  }
+
+  @Test
+  public void testIndexBoundaries() {
+    for (int index = 0; index < 2000; index++) {
+      assertEquals(index, DurationHistogram.indexOf(DurationHistogram.lowestValueAt(index)));
+      assertEquals(index, DurationHistogram.indexOf(DurationHistogram.highestValueAt(index)));
+    }
+    assertEquals(Long.MAX_VALUE, DurationHistogram.highestValueAt(DurationHistogram.indexOf(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testRelativeErrorIsBounded() {
+    final Random random = new Random(42);
+    final long[] values = new long[100000];
+    final DurationHistogram histogram = new DurationHistogram();
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (long) Math.abs(random.nextGaussian() * 20000);
+      histogram.record(values[i]);
+    }
+    Arrays.sort(values);
+
+    for (double percentage : new double[] { 0.5, 0.9, 0.95, 0.99, 0.999 }) {
+      final long exact = values[(int) (values.length * percentage)];
+      final long estimate = histogram.getValueAt(percentage);
+      assertTrue("percentile " + percentage + ": " + estimate + " vs " + exact,
+          Math.abs(estimate - exact) <= exact / 128 + 1);
+    }
+    assertEquals(values[0], histogram.getMin());
+    assertEquals(values[values.length - 1], histogram.getMax());
+  }
+
+  @Test
+  public void testAdd() {
+    final DurationHistogram first = new DurationHistogram();
+    final DurationHistogram second = new DurationHistogram();
+    first.record(10);
+    first.record(20);
+    second.record(30, 2);
+    second.record(100000);
+
+    first.add(second);
+
+    assertEquals(5, first.getCount());
+    assertEquals(10, first.getMin());
+    assertEquals(100000, first.getMax());
+    assertEquals(30, first.getValueAt(0.5));
+  }
+}
@@ -0,0 +1,130 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * This class contains basic tests that verify the parsing behavior of
+ * {@link JMeterCsvParser}.
+ */
+public class JMeterCsvParserTest {
+
+  private static final String PATTERN = "timestamp,elapsed,URL,responseCode,responseMessage,threadName,dataType,success,bytes,Latency";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File writeCsv(int lines) throws Exception {
+    final File file = folder.newFile("results.csv");
+    final FileWriter writer = new FileWriter(file);
+    try {
+      writer.write(PATTERN + "\n");
+      for (int i = 0; i < lines; i++) {
+        writer.write((1393227741256L + i * 100) + "," + (i % 97) + ",GET /page" + (i % 5) + ",200,OK,Thread Group 1-1,text,"
+            + (i % 10 != 0) + ",3478,1016\n");
+      }
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  /**
+   * Verifies that chunks start at the beginning of a line, and cover the entire
+   * file.
+   */
+  @Test
+  public void testChunkBoundsAreAlignedOnLines() throws Exception {
+    // Setup fixture.
+    final File file = writeCsv(1000);
+
+    // Execute system under test.
+    final long[] bounds = JMeterCsvParser.chunkBounds(file, 4096);
+
+    // Verify results.
+    assertEquals(0, bounds[0]);
+    assertEquals(file.length(), bounds[bounds.length - 1]);
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      for (int i = 1; i < bounds.length - 1; i++) {
+        raf.seek(bounds[i] - 1);
+        assertEquals('\n', raf.read());
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  @Test
+  public void testSmallFileIsNotSplit() throws Exception {
+    final File file = writeCsv(10);
+    final long[] bounds = JMeterCsvParser.chunkBounds(file, 1024 * 1024);
+    assertEquals(2, bounds.length);
+  }
+
+  /**
+   * Verifies that merging the reports of all chunks, as they are parsed on the
+   * shared threads, gives the same result as parsing the file at once.
+   */
+  @Test
+  public void testMergedChunksEqualWholeFile() throws Exception {
+    // Setup fixture.
+    final File file = writeCsv(1000);
+    final JMeterCsvParser parser = new JMeterCsvParser("**/*.csv", PATTERN, ",", true);
+
+    // Execute system under test.
+    final PerformanceReport whole = parser.parse(file, 0, file.length());
+    final long[] bounds = JMeterCsvParser.chunkBounds(file, 4096);
+    final PerformanceReport merged = parser.parseChunks(file, bounds);
+
+    // Verify results.
+    assertEquals(1000, whole.size());
+    assertEquals(whole.size(), merged.size());
+    assertEquals(whole.countErrors(), merged.countErrors());
+    assertEquals(whole.getMedian(), merged.getMedian());
+    assertEquals(whole.get90Line(), merged.get90Line());
+    assertEquals(whole.getMax(), merged.getMax());
+    assertEquals(whole.getAverage(), merged.getAverage());
+    assertEquals(whole.getUriReportMap().keySet(), merged.getUriReportMap().keySet());
+    for (UriReport uriReport : whole.getUriListOrdered()) {
+      final UriReport other = merged.getUriReportMap().get(uriReport.getStaplerUri());
+      assertEquals(uriReport.getDurations(), other.getDurations());
+      assertEquals(uriReport.getStart(), other.getStart());
+      assertEquals(uriReport.getEnd(), other.getEnd());
+      assertEquals(uriReport.countErrors(), other.countErrors());
+    }
+  }
+
+  /**
+   * Verifies that quoted labels keep their quotes, as they did when lines were
+   * split by a regular expression, so that they identify the same URIs as in
+   * earlier builds.
+   */
+  @Test
+  public void testQuotedLabelKeepsQuotes() throws Exception {
+    // Setup fixture.
+    final File file = folder.newFile("quoted.csv");
+    final FileWriter writer = new FileWriter(file);
+    try {
+      writer.write(PATTERN + "\n");
+      writer.write("1393227741256,100,\"GET /a, b\",200,OK,Thread Group 1-1,text,true,3478,1016\n");
+    } finally {
+      writer.close();
+    }
+    final JMeterCsvParser parser = new JMeterCsvParser("**/*.csv", PATTERN, ",", true);
+
+    // Execute system under test.
+    final PerformanceReport report = parser.parse(file, 0, file.length());
+
+    // Verify results.
+    assertEquals(1, report.size());
+    assertEquals("\"GET /a, b\"", report.getUriListOrdered().get(0).getUri());
+  }
+}
@@ -1,9 +1,16 @@
 package hudson.plugins.performance;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Test;
 
+import com.google.common.io.Files;
+
 import static org.junit.Assert.*;
 
 /**
@@ -131,6 +138,82 @@ public class JMeterParserTest
   }
 
 
+  /**
+   * Verifies that {@link JMeterParser#parse(File)} reads gzip-compressed XML
+   * and CSV files as if they were not compressed.
+   */
+  @Test
+  public void testParseCompressedJtlFiles() throws Exception 
+  {
+    // Setup fixture.
+    final JMeterParser parser = new JMeterParser(null);
+    final File xmlFile = compress(new File( getClass().getResource("/JMeterResults.jtl").toURI() ));
+    final File csvFile = compress(new File( getClass().getResource("/JENKINS-16627_CSV_instead_of_XML.jtl").toURI() ));
+
+    // Execute system under test.
+    final PerformanceReport xml = parser.parse(xmlFile);
+    final PerformanceReport csv = parser.parse(csvFile);
+
+    // Verify results.
+    assertEquals(8, xml.size());
+    assertEquals(3, csv.size());
+    assertEquals(xmlFile.getName(), xml.getReportFileName());
+  }
+
+  private static File compress(File file) throws Exception 
+  {
+    final File compressed = File.createTempFile("JMeterParserTest", ".jtl.gz");
+    compressed.deleteOnExit();
+    final OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+    try {
+      Files.copy(file, out);
+    } finally {
+      out.close();
+    }
+    return compressed;
+  }
+
+  /**
+   * Verifies that {@link JMeterParser#parseXml(File)} understands both the
+   * short and the long attribute names, and only adds the outermost samples
+   * of nested samples.
+   */
+  @Test
+  public void testParseXmlAttributes() throws Exception 
+  {
+    // Setup fixture.
+    final JMeterParser parser = new JMeterParser(null);
+    final File reportFile = File.createTempFile("JMeterParserTest", ".jtl");
+    reportFile.deleteOnExit();
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+    try {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<testResults version=\"1.2\">\n"
+          + "<httpSample t=\"100\" ts=\"1000\" s=\"true\" lb=\"Home\" rc=\"200\" by=\"2048\">\n"
+          + "  <httpSample t=\"60\" ts=\"1000\" s=\"false\" lb=\"Home/child\" rc=\"500\" by=\"1024\"/>\n"
+          + "</httpSample>\n"
+          + "<sample time=\"300\" timeStamp=\"2000\" success=\"false\" label=\"Home\" rc=\"Non HTTP response code\"/>\n"
+          + "</testResults>\n");
+    } finally {
+      writer.close();
+    }
+    
+    // Execute system under test.
+    final PerformanceReport result = parser.parse(reportFile);
+    
+    // Verify results.
+    assertEquals(1, result.getUriReportMap().size());
+    final UriReport uriReport = result.getUriReportMap().get("Home");
+    assertEquals(2, uriReport.size());
+    assertEquals(1, uriReport.countErrors());
+    assertEquals(200, uriReport.getAverage());
+    assertEquals(1000L, uriReport.getStart().getTime());
+    assertEquals(2300L, uriReport.getEnd().getTime());
+    assertEquals("0,200", uriReport.getHttpCode());
+    assertEquals(2.0, result.getTotalTrafficInKb(), 0.001);
+  }
+
+
   /*
   @Test
   public void parseXmlTest() throws Exception 
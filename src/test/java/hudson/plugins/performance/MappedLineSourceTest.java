@@ -0,0 +1,79 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedLineSourceTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File write(String content) throws Exception {
+    final File file = folder.newFile();
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private static List<String> readAll(MappedLineSource source) throws Exception {
+    final List<String> result = new ArrayList<String>();
+    try {
+      CharSequence line;
+      while ((line = source.nextLine()) != null) {
+        result.add(line.toString());
+      }
+    } finally {
+      source.close();
+    }
+    return result;
+  }
+
+  /**
+   * Verifies that lines are read across window boundaries, including lines
+   * that are longer than a window.
+   */
+  @Test
+  public void testSmallWindows() throws Exception {
+    final String content = "first\r\nsecond line\n\na line that is longer than the window\nl\u00e4st";
+    final File file = write(content);
+    final List<String> expected = Arrays.asList("first", "second line", "", "a line that is longer than the window", "l\u00e4st");
+    for (int windowSize = 1; windowSize < 16; windowSize++) {
+      assertEquals("window " + windowSize, expected, readAll(new MappedLineSource(file, 0, file.length(), windowSize)));
+    }
+    assertEquals(expected, readAll(new MappedLineSource(file)));
+  }
+
+  @Test
+  public void testRange() throws Exception {
+    final File file = write("one\ntwo\nthree\n");
+    assertEquals(Arrays.asList("two", "three"), readAll(new MappedLineSource(file, 4, file.length())));
+    assertEquals(Arrays.asList("one"), readAll(new MappedLineSource(file, 0, 4)));
+  }
+
+  @Test
+  public void testEmptyFile() throws Exception {
+    final MappedLineSource source = new MappedLineSource(write(""));
+    assertNull(source.nextLine());
+    source.close();
+  }
+
+  @Test
+  public void testIndexOf() {
+    assertEquals(2, MappedLineSource.indexOf("a b+c", "b+"));
+    assertEquals(-1, MappedLineSource.indexOf("a b", "b c"));
+  }
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -12,17 +13,30 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import hudson.model.AbstractBuild;
 import hudson.util.StreamTaskListener;
+
+import com.google.common.io.Files;
 import org.easymock.classextension.EasyMock;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.xml.sax.SAXException;
 
 public class PerformanceReportTest {
 
 	private PerformanceReport performanceReport;
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Before
 	public void setUp() throws Exception {
 		PerformanceBuildAction buildAction = EasyMock
@@ -33,18 +47,13 @@ public class PerformanceReportTest {
 
 	@Test
 	public void testAddSample() throws Exception {
-		PrintStream printStream = EasyMock.createMock(PrintStream.class);
-		EasyMock.expect(
-				performanceReport.getBuildAction().getHudsonConsoleWriter())
-				.andReturn(printStream);
-		printStream
-				.println("label cannot be empty, please ensure your jmx file specifies name properly for each http sample: skipping sample");
-		EasyMock.replay(printStream);
-		EasyMock.replay(performanceReport.getBuildAction());
-
 		HttpSample sample1 = new HttpSample();
 		sample1.setDate(new Date());
 		performanceReport.addSample(sample1);
+		assertEquals(1, performanceReport.getSkippedSamples());
+		final ByteArrayOutputStream console = new ByteArrayOutputStream();
+		AbstractParser.logSkippedSamples(performanceReport, "results.jtl", new PrintStream(console, true));
+		assertTrue(console.toString().startsWith("Performance: Skipped 1 samples without a label in 'results.jtl'"));
 
 		sample1.setUri("invalidCharacter/");
 		performanceReport.addSample(sample1);
@@ -100,16 +109,57 @@ public class PerformanceReportTest {
     assertFalse(secondUriReport.isFailed());
 	}
 
+	/**
+	 * Copies a fixture into the temporary folder, as parsing stores serialized
+	 * data next to the report file.
+	 */
+	private File copyOf(File f) throws IOException {
+		final File copy = new File(folder.getRoot(), f.getName());
+		Files.copy(f, copy);
+		return copy;
+	}
+
 	private PerformanceReport parseOneJMeter(File f) throws IOException {
-		return new JMeterParser("").parse(null, Collections.singleton(f),
+		return new JMeterParser("").parse(null, Collections.singleton(copyOf(f)),
 				new StreamTaskListener(System.out)).iterator().next();
 	}
 
 	private PerformanceReport parseOneJUnit(File f) throws IOException {
-		return new JUnitParser("").parse(null, Collections.singleton(f),
+		return new JUnitParser("").parse(null, Collections.singleton(copyOf(f)),
 				new StreamTaskListener(System.out)).iterator().next();
 	}
 
+	/**
+	 * Verifies that data serialized by earlier versions is read, stored in the
+	 * current format, and removed.
+	 */
+	@Test
+	public void testMigrateLegacySerializedReport() throws Exception {
+		final File reportFile = copyOf(new File("src/test/resources/TEST-JUnitResults.xml"));
+		final File legacy = copyOf(new File("src/test/resources/TEST-JUnitResults.xml"
+				+ AbstractParser.LEGACY_SERIALIZED_DATA_FILE_SUFFIX));
+		final PerformanceReport parsed = new JUnitParser("").parse(reportFile);
+
+		final PerformanceReport migrated = AbstractParser.loadSerializedReport(reportFile);
+
+		assertNotNull(migrated);
+		assertFalse(legacy.exists());
+		assertTrue(new File(reportFile.getPath() + AbstractParser.SERIALIZED_DATA_FILE_SUFFIX).exists());
+		assertReportsEqual(parsed, migrated);
+		assertReportsEqual(parsed, AbstractParser.loadSerializedReport(reportFile));
+	}
+
+	private static void assertReportsEqual(PerformanceReport expected, PerformanceReport actual) {
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.getAverage(), actual.getAverage());
+		assertEquals(expected.getMedian(), actual.getMedian());
+		assertEquals(expected.countErrors(), actual.countErrors());
+		assertEquals(expected.getUriReportMap().keySet(), actual.getUriReportMap().keySet());
+		for (Map.Entry<String, UriReport> entry : expected.getUriReportMap().entrySet()) {
+			assertEquals(entry.getValue().getDurations(), actual.getUriReportMap().get(entry.getKey()).getDurations());
+		}
+	}
+
 	@Test
 	public void testPerformanceNonHTTPSamplesMultiThread() throws IOException,
 			SAXException {
@@ -186,4 +236,167 @@ public class PerformanceReportTest {
         List<UriReport> uriReports = performanceReport.getUriListOrdered();
         assertEquals("Ant", uriReports.get(0).getUri());
     }
+
+    @Test
+    public void testSampleSink() {
+        int home = performanceReport.resolveLabel("Home");
+        assertEquals(home, performanceReport.resolveLabel(new String("Home")));
+        assertEquals(SampleSink.NO_LABEL, performanceReport.resolveLabel(null));
+        int login = performanceReport.resolveLabel("http://host/login");
+        assertTrue(home != login);
+
+        performanceReport.addSample(home, 1000, 100, true, false, "200", 1.5);
+        performanceReport.addSample(home, 2000, 300, false, false, "500", 0.5);
+        performanceReport.addSample(login, 3000, 200, true, false, "200", 0);
+
+        UriReport homeReport = performanceReport.getUriReportMap().get("Home");
+        assertEquals(2, homeReport.size());
+        assertEquals(1, homeReport.countErrors());
+        assertEquals(200, homeReport.getAverage());
+        assertEquals(2300, homeReport.getEnd().getTime());
+        assertNotNull(performanceReport.getUriReportMap().get("__host_login"));
+        assertEquals(3, performanceReport.size());
+        assertEquals(2.0, performanceReport.getTotalTrafficInKb(), 0.001);
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void testDiffsWithPreviousBuildSummary() {
+        PerformanceReport previous = new PerformanceReport();
+        previous.addSample(previous.resolveLabel("Home"), 1000, 100, true, false, "200", 0);
+
+        AbstractBuild currentBuild = EasyMock.createMock(AbstractBuild.class);
+        AbstractBuild previousBuild = EasyMock.createMock(AbstractBuild.class);
+        PerformanceBuildAction buildAction = EasyMock.createNiceMock(PerformanceBuildAction.class);
+        PerformanceBuildAction previousAction = EasyMock.createNiceMock(PerformanceBuildAction.class);
+        EasyMock.expect((AbstractBuild) buildAction.getBuild()).andReturn(currentBuild);
+        EasyMock.expect(currentBuild.getPreviousCompletedBuild()).andReturn(previousBuild);
+        EasyMock.expect(previousBuild.getAction(PerformanceBuildAction.class)).andReturn(previousAction);
+        EasyMock.expect(previousAction.getSummaryReport("report.jtl")).andReturn(previous);
+        EasyMock.replay(currentBuild, previousBuild, buildAction, previousAction);
+        previous.setBuildAction(previousAction);
+
+        PerformanceReport report = new PerformanceReport();
+        report.setReportFileName("report.jtl");
+        report.setBuildAction(buildAction);
+        int home = report.resolveLabel("Home");
+        report.addSample(home, 1000, 300, true, false, "200", 0);
+        report.addSample(home, 2000, 300, false, false, "500", 0);
+
+        UriReport uriReport = report.getUriReportMap().get("Home");
+        assertEquals(200, uriReport.getAverageDiff());
+        assertEquals(1, uriReport.getSizeDiff());
+        assertEquals("200", uriReport.getLastBuildHttpCodeIfChanged());
+        assertEquals(200, report.getAverageDiff());
+        assertEquals(50.0, report.getErrorPercentDiff(), 0.001);
+        // the summary of the previous build is looked up once.
+        EasyMock.verify(currentBuild, previousBuild, buildAction, previousAction);
+    }
+
+    @Test
+    public void testEstimateSizeCountsSamples() {
+        int home = performanceReport.resolveLabel("Home");
+        performanceReport.addSample(home, 1000, 100, true, false, "200", 0);
+        long single = performanceReport.estimateSize();
+
+        for (int i = 1; i <= 10000; i++) {
+            performanceReport.addSample(home, 1000 + i, 100, true, false, "200", 0);
+        }
+
+        assertTrue(performanceReport.estimateSize() - single >= 10000 * SampleStore.BYTES_PER_SAMPLE);
+    }
+
+    @Test
+    public void testLabelsWithSameStaplerUri() {
+        int withScheme = performanceReport.resolveLabel("http://host/a");
+        int withoutScheme = performanceReport.resolveLabel("//host/a");
+        assertTrue(withScheme != withoutScheme);
+
+        performanceReport.addSample(withScheme, 1000, 100, true, false, "200", 0);
+        performanceReport.addSample(withoutScheme, 2000, 100, true, false, "200", 0);
+
+        assertEquals(1, performanceReport.getUriReportMap().size());
+        assertEquals(2, performanceReport.getUriReportMap().get("__host_a").size());
+    }
+
+    @Test
+    public void testAddSampleConcurrently() throws Exception {
+        final int threads = 4;
+        final int samplesPerThread = 5000;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Future<?>[] futures = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                futures[t] = executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < samplesPerThread; i++) {
+                            HttpSample sample = new HttpSample();
+                            sample.setDate(new Date(1000L + i));
+                            sample.setUri("uri" + (i % 10));
+                            sample.setDuration(i % 100);
+                            sample.setSuccessful(i % 4 != 0);
+                            performanceReport.addSample(sample);
+                        }
+                        return null;
+                    }
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(10, performanceReport.getUriReportMap().size());
+        assertEquals(10, performanceReport.getUriListOrdered().size());
+        assertEquals(threads * samplesPerThread, performanceReport.size());
+        assertEquals(threads * samplesPerThread / 4, performanceReport.countErrors());
+        assertEquals(0, performanceReport.getMin());
+        assertEquals(99, performanceReport.getMax());
+        assertEquals(49, performanceReport.getAverage());
+        for (UriReport uriReport : performanceReport.getUriReportMap().values()) {
+            assertEquals(threads * samplesPerThread / 10, uriReport.size());
+            assertEquals(threads * samplesPerThread / 10, uriReport.getDurations().size());
+        }
+    }
+
+    /**
+     * Verifies that readers see consistent aggregates while samples are added,
+     * and that no sample that is added while the aggregates are derived is
+     * left out of them.
+     */
+    @Test
+    public void testReadWhileAddingSamples() throws Exception {
+        final int samples = 200000;
+        final PerformanceReport report = new PerformanceReport();
+        final int label = report.resolveLabel("uri");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int i = 0; i < samples; i++) {
+                        report.addSample(label, 1000L + i, 100, i % 2 == 0, false, "200", 0);
+                    }
+                    return null;
+                }
+            });
+            while (!writer.isDone()) {
+                long average = report.getAverage();
+                assertTrue("average " + average, average == 0 || average == 100);
+                double errorPercent = report.errorPercent();
+                assertTrue("error percent " + errorPercent, errorPercent <= 50.0001);
+            }
+            writer.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(samples, report.size());
+        assertEquals(samples / 2, report.countErrors());
+        assertEquals(100, report.getAverage());
+    }
 }
@@ -0,0 +1,170 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ReportCodecTest {
+
+  private static HttpSample sample(String uri, long timestamp, long duration, boolean successful, String httpCode) {
+    final HttpSample sample = new HttpSample();
+    sample.setUri(uri);
+    sample.setDate(new Date(timestamp));
+    sample.setDuration(duration);
+    sample.setSuccessful(successful);
+    sample.setHttpCode(httpCode);
+    sample.setSizeInKb(1.5);
+    return sample;
+  }
+
+  private static PerformanceReport roundTrip(PerformanceReport report, boolean withSamples) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ReportCodec.write(report, out, withSamples);
+    return ReportCodec.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    // Setup fixture.
+    final PerformanceReport report = new PerformanceReport();
+    report.setReportFileName("results.jtl");
+    for (int i = 0; i < 500; i++) {
+      report.addSample(sample("/page" + (i % 3), 1393227741256L + i * 17, (i * 7919) % 3000, i % 11 != 0, i % 11 != 0 ? "200" : "500"));
+    }
+
+    // Execute system under test.
+    final PerformanceReport result = roundTrip(report, true);
+
+    // Verify results.
+    assertEquals("results.jtl", result.getReportFileName());
+    assertEquals(report.size(), result.size());
+    assertEquals(report.countErrors(), result.countErrors());
+    assertEquals(report.getAverage(), result.getAverage());
+    assertEquals(report.getMedian(), result.getMedian());
+    assertEquals(report.get90Line(), result.get90Line());
+    assertEquals(report.getMin(), result.getMin());
+    assertEquals(report.getMax(), result.getMax());
+    assertEquals(report.getTotalTrafficInKb(), result.getTotalTrafficInKb(), 0.001);
+    assertEquals(report.getUriReportMap().keySet(), result.getUriReportMap().keySet());
+    for (UriReport uriReport : report.getUriReportMap().values()) {
+      final UriReport other = result.getUriReportMap().get(uriReport.getStaplerUri());
+      assertEquals(uriReport.getUri(), other.getUri());
+      assertEquals(uriReport.getDurations(), other.getDurations());
+      assertEquals(uriReport.countErrors(), other.countErrors());
+      assertEquals(uriReport.getHttpCode(), other.getHttpCode());
+      assertEquals(uriReport.getStart(), other.getStart());
+      assertEquals(uriReport.getEnd(), other.getEnd());
+      assertEquals(uriReport.getMedian(), other.getMedian());
+    }
+  }
+
+  @Test
+  public void testWithoutSamples() throws Exception {
+    final PerformanceReport report = new PerformanceReport();
+    report.addSample(sample("/a", 1000, 10, true, "200"));
+
+    final PerformanceReport result = roundTrip(report, false);
+
+    assertEquals(1, result.size());
+    assertEquals(10, result.getMedian());
+    assertEquals(1, result.getUriReportMap().get("_a").size());
+    assertEquals(0, result.getUriReportMap().get("_a").getDurations().size());
+    assertNull(result.getReportFileName());
+  }
+
+  /**
+   * Summaries have no samples, but answer everything trend graphs ask for.
+   */
+  @Test
+  public void testSummaries() throws Exception {
+    final PerformanceReport first = new PerformanceReport();
+    first.setReportFileName("first.jtl");
+    first.addSample(sample("/a", 1000, 10, true, "200"));
+    first.addSample(sample("/a", 3000, 30, false, "500"));
+    final PerformanceReport second = new PerformanceReport();
+    second.setReportFileName("second.jtl");
+    second.addSample(sample("/b", 1000, 20, true, "200"));
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ReportCodec.writeSummaries(Arrays.asList(first, second), out);
+    final Map<String, PerformanceReport> result = ReportCodec.readSummaries(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(Arrays.asList("first.jtl", "second.jtl"), new ArrayList<String>(result.keySet()));
+    final PerformanceReport summary = result.get("first.jtl");
+    assertEquals(2, summary.size());
+    assertEquals(20, summary.getAverage());
+    assertEquals(1, summary.countErrors());
+    final UriReport uriReport = summary.getUriReportMap().get("_a");
+    assertEquals(2, uriReport.size());
+    assertEquals(0, uriReport.getDurations().size());
+    assertEquals(20, uriReport.getAverage());
+    assertEquals(new ThroughputUriReport(first.getUriReportMap().get("_a")).get(), new ThroughputUriReport(uriReport).get());
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsOtherData() throws Exception {
+    ReportCodec.read(new ByteArrayInputStream(new byte[] { (byte) 0xAC, (byte) 0xED, 0, 5, 0, 0 }));
+  }
+
+  @Test
+  public void testVarLong() throws Exception {
+    final long[] values = { 0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    for (long value : values) {
+      ReportCodec.writeVarLong(out, ReportCodec.zigZag(value));
+    }
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    for (long value : values) {
+      assertEquals(value, ReportCodec.unZigZag(ReportCodec.readVarLong(in)));
+    }
+  }
+
+  @Test
+  public void testReadFileDefersSamples() throws Exception {
+    final PerformanceReport report = new PerformanceReport();
+    report.setReportFileName("results.jtl");
+    for (int i = 0; i < 100; i++) {
+      report.addSample(sample("/page" + (i % 2), 1000 + i * 10, i, true, "200"));
+    }
+    final File file = File.createTempFile("ReportCodecTest", ".serialized-v2");
+    file.deleteOnExit();
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      ReportCodec.write(report, out);
+    } finally {
+      out.close();
+    }
+
+    final PerformanceReport result = ReportCodec.read(file);
+
+    final UriReport page0 = result.getUriReportMap().get("_page0");
+    final UriReport page1 = result.getUriReportMap().get("_page1");
+    assertFalse(page0.isSamplesLoaded());
+    assertEquals(report.size(), result.size());
+    assertEquals(report.getMedian(), result.getMedian());
+    assertEquals(50, page0.size());
+    assertFalse(page0.isSamplesLoaded());
+
+    assertEquals(report.getUriReportMap().get("_page0").getDurations(), page0.getDurations());
+    assertTrue(page0.isSamplesLoaded());
+    assertFalse(page1.isSamplesLoaded());
+    assertEquals(report.getUriReportMap().get("_page1").getDurations(), page1.getDurations());
+  }
+}
@@ -0,0 +1,63 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReportComparisonTest {
+
+  private static UriReport uriReport(String staplerUri, long... durations) {
+    final UriReport uriReport = new UriReport(staplerUri, staplerUri);
+    for (long duration : durations) {
+      uriReport.addSample(0, duration, true, false, "200", 0, 0, 0);
+    }
+    return uriReport;
+  }
+
+  @Test
+  public void testCompareJoinsUrisIgnoringCase() {
+    final List<UriReport> previous = Arrays.asList(uriReport("Home", 100), uriReport("Login", 200),
+        uriReport("Gone", 50));
+    final List<UriReport> current = Arrays.asList(uriReport("login", 100), uriReport("home", 150),
+        uriReport("New", 10));
+
+    final List<ReportComparison.Entry> entries = ReportComparison.compare(previous, current).getEntries();
+
+    assertEquals(2, entries.size());
+    final ReportComparison.Entry home = entries.get(0);
+    assertEquals("Home", home.getPreviousUri());
+    assertEquals("home", home.getCurrentUri());
+    assertEquals(100, home.getPrevious(ReportComparison.Metric.AVERAGE));
+    assertEquals(150, home.getCurrent(ReportComparison.Metric.AVERAGE));
+    assertEquals(50, home.getDiff(ReportComparison.Metric.AVERAGE));
+    assertEquals(50.0, home.getDiffPercent(ReportComparison.Metric.AVERAGE), 0.0);
+    final ReportComparison.Entry login = entries.get(1);
+    assertEquals("Login", login.getPreviousUri());
+    assertEquals(-50.0, login.getDiffPercent(ReportComparison.Metric.AVERAGE), 0.0);
+  }
+
+  @Test
+  public void testDiffPercentIsRounded() {
+    final List<ReportComparison.Entry> entries = ReportComparison.compare(Arrays.asList(uriReport("a", 300)),
+        Arrays.asList(uriReport("a", 400))).getEntries();
+
+    assertEquals(33.33, entries.get(0).getDiffPercent(ReportComparison.Metric.MEDIAN), 0.0);
+  }
+
+  @Test
+  public void testCompareWithoutReports() {
+    assertTrue(ReportComparison.compare(null, Arrays.asList(uriReport("a", 1))).getEntries().isEmpty());
+  }
+
+  @Test
+  public void testMetricOfConfigType() {
+    assertEquals(ReportComparison.Metric.AVERAGE, ReportComparison.Metric.of("art"));
+    assertEquals(ReportComparison.Metric.LINE90, ReportComparison.Metric.of(PerformancePublisher.PRT));
+    assertNull(ReportComparison.Metric.of("other"));
+  }
+}
@@ -0,0 +1,139 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.FilePath;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReportFilesTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testArchiveCompressesAndOpenDecompresses() throws Exception {
+    // Setup fixture.
+    final File source = new File(getClass().getResource("/JMeterResults.jtl").toURI());
+    final File target = new File(folder.getRoot(), "JMeter/JMeterResults.jtl");
+
+    // Execute system under test.
+    ReportFiles.archive(new FilePath(source), target);
+
+    // Verify results.
+    assertTrue(ReportFiles.isCompressed(target));
+    assertTrue(target.length() < source.length());
+    final InputStream in = ReportFiles.open(target);
+    try {
+      assertEquals(FileUtils.readFileToString(source), IOUtils.toString(in));
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testOpenReadsUncompressedFilesAsTheyAre() throws Exception {
+    // Setup fixture.
+    final File file = folder.newFile("results.jtl");
+    FileUtils.writeStringToFile(file, "<?xml version=\"1.0\"?>\n<testResults/>\n");
+
+    // Execute system under test.
+    final InputStream in = ReportFiles.open(file);
+
+    // Verify results.
+    try {
+      assertFalse(ReportFiles.isCompressed(file));
+      assertEquals(FileUtils.readFileToString(file), IOUtils.toString(in));
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testArchiveKeepsCompressedFilesAsTheyAre() throws Exception {
+    // Setup fixture.
+    final File source = new File(getClass().getResource("/JMeterResults.jtl").toURI());
+    final File compressed = new File(folder.newFolder("workspace"), "JMeterResults.jtl.gz");
+    ReportFiles.archive(new FilePath(source), compressed);
+    final File target = new File(folder.getRoot(), "JMeter/JMeterResults.jtl.gz");
+
+    // Execute system under test.
+    ReportFiles.archive(new FilePath(compressed), target);
+
+    // Verify results.
+    assertTrue(FileUtils.contentEquals(compressed, target));
+    final InputStream in = ReportFiles.open(target);
+    try {
+      assertEquals(FileUtils.readFileToString(source), IOUtils.toString(in));
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testOpenRejectsZstd() throws Exception {
+    // Setup fixture.
+    final File file = folder.newFile("results.jtl.zst");
+    FileUtils.writeByteArrayToFile(file, new byte[] { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0, 0 });
+    assertTrue(ReportFiles.isCompressed(file));
+
+    // Execute system under test.
+    ReportFiles.open(file);
+  }
+
+  /**
+   * Verifies that a streamed byte range has the same lines as a mapped one,
+   * so that files can be read without mapping them.
+   */
+  @Test
+  public void testStreamLinesReadsTheSameRangeAsMapping() throws Exception {
+    // Setup fixture.
+    final File file = folder.newFile("results.csv");
+    FileUtils.writeStringToFile(file, "header\n1000,100,Home\r\n2000,200,Login\n3000,300,Home");
+    final long start = "header\n".length();
+
+    // Execute system under test.
+    final LineSource streamed = ReportFiles.streamLines(file, start, file.length() - 4);
+    final LineSource mapped = new MappedLineSource(file, start, file.length() - 4);
+
+    // Verify results.
+    try {
+      for (CharSequence line = mapped.nextLine(); line != null; line = mapped.nextLine()) {
+        assertEquals(line.toString(), String.valueOf(streamed.nextLine()));
+      }
+      assertNull(streamed.nextLine());
+    } finally {
+      streamed.close();
+      mapped.close();
+    }
+  }
+
+  @Test
+  public void testReplaceRenamesPartialFileOverTarget() throws Exception {
+    // Setup fixture.
+    final File target = folder.newFile("results.jtl.serialized-v2");
+    FileUtils.writeStringToFile(target, "old");
+    final File partial = ReportFiles.newPartialFile(target);
+    FileUtils.writeStringToFile(partial, "new");
+
+    // Execute system under test.
+    ReportFiles.replace(partial, target);
+
+    // Verify results.
+    assertEquals("new", FileUtils.readFileToString(target));
+    assertFalse(partial.exists());
+    assertTrue(AbstractParser.isSerializedDataFile(partial.getName()));
+    assertEquals(1, folder.getRoot().list().length);
+  }
+}
@@ -0,0 +1,106 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hudson.FilePath;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReportTailTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+
+  private ReportTail tail;
+
+  @Before
+  public void setUp() throws Exception {
+    file = folder.newFile("live.jtl");
+    tail = new ReportTail(new JMeterCsvParser(null, "timestamp,elapsed,URL,responseCode,success", ",", true),
+        file.getName());
+  }
+
+  private void append(String content, boolean append) throws IOException {
+    final FileOutputStream out = new FileOutputStream(file, append);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Verifies that every poll reads only complete lines that were appended
+   * since the previous poll, and skips the header only at the start.
+   */
+  @Test
+  public void testPollReadsAppendedLines() throws Exception {
+    final String complete = "timestamp,elapsed,URL,responseCode,success\n1000,100,Home,200,true\n";
+    append(complete + "2000,3", false);
+
+    assertEquals(complete.length(), tail.poll(new FilePath(file)));
+    assertEquals(1, tail.getReport().size());
+    assertEquals(100, tail.getReport().getAverage());
+
+    append("00,Home,500,false\n3000,200,Login,200,true\n", true);
+    assertEquals(file.length() - complete.length(), tail.poll(new FilePath(file)));
+    assertEquals(file.length(), tail.getOffset());
+    assertEquals(3, tail.getReport().size());
+    assertEquals(200, tail.getReport().getAverage());
+    assertEquals(1, tail.getReport().countErrors());
+    // only the aggregates are kept, not the samples.
+    assertEquals(2, tail.getReport().getUriReportMap().get("Home").size());
+    assertTrue(tail.getReport().getUriReportMap().get("Home").getDurations().isEmpty());
+
+    assertEquals(0, tail.poll(new FilePath(file)));
+    assertEquals(3, tail.getReport().size());
+  }
+
+  @Test
+  public void testPollStartsOverWhenFileShrinks() throws Exception {
+    append("timestamp,elapsed,URL,responseCode,success\n1000,100,Home,200,true\n2000,300,Home,200,true\n", false);
+    tail.poll(new FilePath(file));
+    assertEquals(2, tail.getReport().size());
+
+    append("timestamp,elapsed,URL,responseCode,success\n", false);
+    tail.poll(new FilePath(file));
+    append("5000,50,Home,200,true\n", true);
+    tail.poll(new FilePath(file));
+
+    assertEquals(1, tail.getReport().size());
+    assertEquals(50, tail.getReport().getAverage());
+  }
+
+  /**
+   * Verifies that a line that is not a sample, in the middle of what a poll
+   * reads, is skipped, and that the lines after it are still read.
+   */
+  @Test
+  public void testBadLineIsSkipped() throws Exception {
+    append("timestamp,elapsed,URL,responseCode,success\n1000,100,Home,200,true\n"
+        + "timestamp,elapsed,URL,responseCode,success\n2000,300,Home,200,true\n", false);
+
+    tail.poll(new FilePath(file));
+
+    assertEquals(2, tail.getReport().size());
+    assertEquals(200, tail.getReport().getAverage());
+    assertEquals(1, tail.getSkippedLines());
+    assertEquals(file.length(), tail.getOffset());
+
+    append("3000,200,Login,200,true\n", true);
+    tail.poll(new FilePath(file));
+
+    assertEquals(3, tail.getReport().size());
+    assertEquals(1, tail.getSkippedLines());
+  }
+}
@@ -0,0 +1,55 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StreamLineSourceTest {
+
+  private static List<String> readAll(StreamLineSource source) throws Exception {
+    final List<String> result = new ArrayList<String>();
+    try {
+      CharSequence line;
+      while ((line = source.nextLine()) != null) {
+        result.add(line.toString());
+      }
+    } finally {
+      source.close();
+    }
+    return result;
+  }
+
+  /**
+   * Verifies that lines are read across buffer refills, including lines that
+   * are longer than the buffer.
+   */
+  @Test
+  public void testSmallBuffers() throws Exception {
+    final byte[] content = "first\r\nsecond line\n\na line that is longer than the buffer\nl\u00e4st".getBytes("UTF-8");
+    final List<String> expected = Arrays.asList("first", "second line", "", "a line that is longer than the buffer", "l\u00e4st");
+    for (int bufferSize = 1; bufferSize < 16; bufferSize++) {
+      assertEquals("buffer " + bufferSize, expected,
+          readAll(new StreamLineSource(new ByteArrayInputStream(content), bufferSize)));
+    }
+    assertEquals(expected, readAll(new StreamLineSource(new ByteArrayInputStream(content))));
+  }
+
+  @Test
+  public void testTrailingLineBreak() throws Exception {
+    final byte[] content = "one\ntwo\n".getBytes("UTF-8");
+    assertEquals(Arrays.asList("one", "two"), readAll(new StreamLineSource(new ByteArrayInputStream(content), 3)));
+  }
+
+  @Test
+  public void testEmptyStream() throws Exception {
+    final StreamLineSource source = new StreamLineSource(new ByteArrayInputStream(new byte[0]));
+    assertNull(source.nextLine());
+    source.close();
+  }
+}
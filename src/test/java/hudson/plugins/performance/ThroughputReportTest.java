@@ -39,4 +39,42 @@ public class ThroughputReportTest {
         Assert.assertEquals(2, throughputReport.get());
     }
 
+    @Test
+    public void shouldComputeRatesOverWallClock() {
+        final int home = performanceReport.resolveLabel("home");
+        final int login = performanceReport.resolveLabel("login");
+        final long start = 1000000;
+        // ramp-up: 2 requests per second during 2 seconds.
+        for (int second = 0; second < 2; second++) {
+            for (int i = 0; i < 2; i++) {
+                performanceReport.addSample(home, start + second * 1000 + i * 100, 10, true, false, "200", 0);
+            }
+        }
+        // plateau: 10 requests per second during 6 seconds, spread over two URIs.
+        for (int second = 2; second < 8; second++) {
+            for (int i = 0; i < 10; i++) {
+                performanceReport.addSample(i % 2 == 0 ? home : login, start + second * 1000 + i * 50, 10, true,
+                        false, "200", 0);
+            }
+        }
+        // ramp-down: 1 request in the last second.
+        performanceReport.addSample(login, start + 8000, 10, true, false, "200", 0);
+
+        Assert.assertEquals(9, throughputReport.getRates().length);
+        Assert.assertEquals(start, throughputReport.getStart());
+        Assert.assertEquals(2.0, throughputReport.getRates()[0], 0.001);
+        Assert.assertEquals(10.0, throughputReport.getRates()[5], 0.001);
+        Assert.assertEquals(10.0, throughputReport.getPeak(), 0.001);
+        Assert.assertEquals(10.0, throughputReport.getSustained(), 0.001);
+        Assert.assertEquals(65 / 9.0, throughputReport.getAverage(), 0.001);
+    }
+
+    @Test
+    public void shouldReturnZeroRatesIfNoUri() {
+        Assert.assertEquals(0, throughputReport.getRates().length);
+        Assert.assertEquals(0.0, throughputReport.getAverage(), 0.001);
+        Assert.assertEquals(0.0, throughputReport.getPeak(), 0.001);
+        Assert.assertEquals(0.0, throughputReport.getSustained(), 0.001);
+    }
+
 }
@@ -0,0 +1,123 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+public class TimeBucketsTest {
+
+  @Test
+  public void testRecord() {
+    final TimeBuckets buckets = new TimeBuckets(1000);
+    buckets.record(5500, 100, false);
+    buckets.record(5900, 300, true);
+    buckets.record(7100, 50, false);
+
+    assertEquals(3, buckets.size());
+    assertEquals(5000, buckets.getStart(0));
+    assertEquals(2, buckets.getCount(0));
+    assertEquals(1, buckets.getErrors(0));
+    assertEquals(200, buckets.getAverage(0));
+    assertEquals(100, buckets.getMin(0));
+    assertEquals(300, buckets.getMax(0));
+    assertEquals(0, buckets.getCount(1));
+    assertEquals(1, buckets.getCount(2));
+    assertEquals(50, buckets.getAverage(2));
+  }
+
+  /**
+   * Samples may arrive out of order, also before the first bucket.
+   */
+  @Test
+  public void testRecordEarlierSample() {
+    final TimeBuckets buckets = new TimeBuckets(1000);
+    buckets.record(5500, 100, false);
+    buckets.record(3200, 10, false);
+
+    assertEquals(3, buckets.size());
+    assertEquals(3000, buckets.getStart(0));
+    assertEquals(10, buckets.getAverage(0));
+    assertEquals(100, buckets.getAverage(2));
+  }
+
+  @Test
+  public void testCoarsenKeepsTotals() {
+    final TimeBuckets buckets = new TimeBuckets(1000);
+    final long hour = 3600 * 1000;
+    long sum = 0;
+    for (long time = 0; time < 10 * hour; time += 500) {
+      buckets.record(1000000 + time, time % 1000, false);
+      sum += time % 1000;
+    }
+
+    assertTrue(buckets.size() <= TimeBuckets.MAX_BUCKETS);
+    assertTrue(buckets.getWidth() > 1000);
+    long count = 0;
+    long total = 0;
+    for (int i = 0; i < buckets.size(); i++) {
+      count += buckets.getCount(i);
+      total += buckets.getSum(i);
+      assertEquals(0, buckets.getStart(i) % buckets.getWidth());
+    }
+    assertEquals(10 * hour / 500, count);
+    assertEquals(sum, total);
+  }
+
+  @Test
+  public void testPercentile() {
+    final TimeBuckets buckets = new TimeBuckets(1000);
+    for (int i = 0; i < 90; i++) {
+      buckets.record(0, 10, false);
+    }
+    for (int i = 0; i < 10; i++) {
+      buckets.record(0, 1000, false);
+    }
+    assertEquals(15, buckets.getPercentile(0, 0.5));
+    assertEquals(1000, buckets.getPercentile(0, 0.95));
+  }
+
+  @Test
+  public void testAdd() {
+    final TimeBuckets first = new TimeBuckets(1000);
+    first.record(1000, 10, false);
+    final TimeBuckets second = new TimeBuckets(500);
+    second.record(1500, 30, true);
+    second.record(4000, 20, false);
+
+    first.add(second);
+
+    assertEquals(4, first.size());
+    assertEquals(2, first.getCount(0));
+    assertEquals(1, first.getErrors(0));
+    assertEquals(20, first.getAverage(0));
+    assertEquals(1, first.getCount(3));
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    final TimeBuckets buckets = new TimeBuckets(1000);
+    buckets.record(1000, 10, false);
+    buckets.record(4000, 20, true);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    buckets.writeTo(new DataOutputStream(bytes));
+    final TimeBuckets read = TimeBuckets.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(buckets.size(), read.size());
+    assertEquals(buckets.getWidth(), read.getWidth());
+    for (int i = 0; i < buckets.size(); i++) {
+      assertEquals(buckets.getStart(i), read.getStart(i));
+      assertEquals(buckets.getCount(i), read.getCount(i));
+      assertEquals(buckets.getErrors(i), read.getErrors(i));
+      assertEquals(buckets.getSum(i), read.getSum(i));
+      assertEquals(buckets.getMax(i), read.getMax(i));
+      assertEquals(buckets.getPercentile(i, 0.5), read.getPercentile(i, 0.5));
+    }
+  }
+}
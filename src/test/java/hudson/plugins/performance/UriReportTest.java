@@ -67,6 +67,19 @@ public class UriReportTest {
 		assertTrue(uriReport.isFailed());
 	}
 
+	@Test
+	public void testDurationsKeepInsertionOrder() {
+		final List<Long> durations = uriReport.getDurations();
+		assertEquals(3, durations.size());
+		assertEquals(MAX, durations.get(0).longValue());
+		assertEquals(AVERAGE, durations.get(1).longValue());
+		assertEquals(MIN, durations.get(2).longValue());
+
+		final List<Long> sorted = uriReport.getSortedDuration();
+		assertEquals(MIN, sorted.get(0).longValue());
+		assertEquals(MAX, sorted.get(2).longValue());
+	}
+
 	/**
 	 * Same dates, different duration. Shortest duration should be ordered first.
 	 */